@@ -1,50 +1,673 @@
+package checkers;
+
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.StringTokenizer;
-import java.util.stream.Collector;
-import java.util.stream.Collectors;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 /**
  * Executes a two player game of checkers through an interactive cli
  */
 class Main {
     public static void main(String args[]) throws IOException {
-        System.out.println("Welcome! Starting a new game of Checkers.");
-        Game game = new Game();
-        game.printBoard();
-        System.out.println("Which team will start? Enter Red or Black:");
-        BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+        Map<Team, Engine> engines = new EnumMap<>(Team.class);
+        long engineTimeMillis = Engine.DEFAULT_TIME_MILLIS;
+        int engineHashMegabytes = Engine.DEFAULT_HASH_MEGABYTES;
+        int engineThreads = 1;
+        int perftDepth = 0;
+        boolean perftDivide = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String fen = Fen.STANDARD_START;
+        long simulatedGames = 0;
+        Simulator.PolicyType redPolicy = Simulator.PolicyType.RANDOM;
+        Simulator.PolicyType blackPolicy = Simulator.PolicyType.RANDOM;
+        int maxPlies = 200;
+        int engineDepth = 4;
+        long seed = 1;
+        int loadClients = 8;
+        int loadMoves = 1000;
+        int loadIdle = 0;
+        int servePort = -1;
+        String loadAddress = null;
+        String recordPath = null;
+        String replayPath = null;
+        String exportPath = null;
+        String importPath = null;
+        String bookPath = null;
+        String bookLog = null;
+        int bookTurns = 16;
+        String endgamesPath = null;
+        int endgamePieces = 0;
+        int boardSize = 8;
+        boolean checkMoves = false;
+        Renderer.Mode renderMode = Renderer.Mode.PLAIN;
+        boolean metrics = false;
+        String scriptPath = null;
+        int noProgressLimit = Game.DEFAULT_NO_PROGRESS_TURNS;
+        Rules rules = Rules.CASUAL;
+        String evaluatePath = null;
+        String weightsPath = null;
+        int hintDepth = Analyst.DEFAULT_DEPTH;
+        int blunderPlies = Analyst.DEFAULT_BLUNDER_PLIES;
+        String snapshotPath = null;
+        String checkpointPath = null;
+        long checkpointMillis = Server.DEFAULT_CHECKPOINT_MILLIS;
+        List<Team> engineTeams = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--engine":
+                    String teams = args[++i].toUpperCase();
+                    if (teams.equals("BOTH")) {
+                        engineTeams.add(Team.RED);
+                        engineTeams.add(Team.BLACK);
+                    } else {
+                        engineTeams.add(Team.valueOf(teams));
+                    }
+                    break;
+                case "--engine-time":
+                    engineTimeMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--engine-hash":
+                    engineHashMegabytes = Integer.parseInt(args[++i]);
+                    break;
+                case "--engine-threads":
+                    engineThreads = Integer.parseInt(args[++i]);
+                    break;
+                case "--perft":
+                    perftDepth = Integer.parseInt(args[++i]);
+                    break;
+                case "--divide":
+                    perftDivide = true;
+                    break;
+                case "--fen":
+                    fen = args[++i];
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--simulate":
+                    simulatedGames = Long.parseLong(args[++i]);
+                    break;
+                case "--red-policy":
+                    redPolicy = Simulator.PolicyType.valueOf(args[++i].toUpperCase());
+                    break;
+                case "--black-policy":
+                    blackPolicy = Simulator.PolicyType.valueOf(args[++i].toUpperCase());
+                    break;
+                case "--max-plies":
+                    maxPlies = Integer.parseInt(args[++i]);
+                    break;
+                case "--engine-depth":
+                    engineDepth = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--serve":
+                    servePort = Integer.parseInt(args[++i]);
+                    break;
+                case "--load-clients":
+                    loadClients = Integer.parseInt(args[++i]);
+                    break;
+                case "--load-moves":
+                    loadMoves = Integer.parseInt(args[++i]);
+                    break;
+                case "--load-idle":
+                    loadIdle = Integer.parseInt(args[++i]);
+                    break;
+                case "--load":
+                    loadAddress = args[++i];
+                    break;
+                case "--record":
+                    recordPath = args[++i];
+                    break;
+                case "--evaluate":
+                    evaluatePath = args[++i];
+                    break;
+                case "--eval-weights":
+                    weightsPath = args[++i];
+                    break;
+                case "--replay":
+                    replayPath = args[++i];
+                    break;
+                case "--export-pdn":
+                    exportPath = args[++i];
+                    break;
+                case "--import-pdn":
+                    importPath = args[++i];
+                    break;
+                case "--book":
+                    bookPath = args[++i];
+                    break;
+                case "--build-book":
+                    bookLog = args[++i];
+                    break;
+                case "--book-turns":
+                    bookTurns = Integer.parseInt(args[++i]);
+                    break;
+                case "--endgames":
+                    endgamesPath = args[++i];
+                    break;
+                case "--build-endgames":
+                    endgamePieces = Integer.parseInt(args[++i]);
+                    break;
+                case "--size":
+                    boardSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--rules":
+                    rules = Rules.valueOf(args[++i].toUpperCase());
+                    break;
+                case "--draw-turns":
+                    noProgressLimit = Integer.parseInt(args[++i]);
+                    break;
+                case "--script":
+                    scriptPath = args[++i];
+                    break;
+                case "--metrics":
+                    metrics = true;
+                    break;
+                case "--snapshot":
+                    snapshotPath = args[++i];
+                    break;
+                case "--checkpoint":
+                    checkpointPath = args[++i];
+                    break;
+                case "--checkpoint-interval":
+                    checkpointMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--hint-depth":
+                    hintDepth = Integer.parseInt(args[++i]);
+                    break;
+                case "--blunder-plies":
+                    blunderPlies = Integer.parseInt(args[++i]);
+                    break;
+                case "--render":
+                    renderMode = Renderer.Mode.valueOf(args[++i].toUpperCase());
+                    break;
+                case "--check-moves":
+                    checkMoves = true;
+                    break;
+                case "--engine-bench":
+                    runEngineBenchmark(Integer.parseInt(args[++i]), engineHashMegabytes);
+                    return;
+                default:
+                    throw new IllegalArgumentException("Unrecognized option " + args[i]);
+            }
+        }
+        if (bookLog != null) {
+            if (bookPath == null) {
+                throw new IllegalArgumentException("--build-book needs --book to name the book to write");
+            }
+            int positions = OpeningBook.build(Paths.get(bookLog), Paths.get(bookPath), bookTurns);
+            System.out.println("Wrote " + positions + " positions to " + bookPath);
+            return;
+        }
+        if (endgamePieces > 0) {
+            if (endgamesPath == null) {
+                throw new IllegalArgumentException("--build-endgames needs --endgames to name the database to write");
+            }
+            long start = System.nanoTime();
+            EndgameDatabase.build(Paths.get(endgamesPath), endgamePieces, threads, System.out);
+            System.out.println("Wrote " + endgamesPath + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return;
+        }
+        if (replayPath != null) {
+            replayLog(Paths.get(replayPath));
+            return;
+        }
+        if (evaluatePath != null) {
+            runEvaluation(evaluatePath, boardSize,
+                    weightsPath == null ? new Evaluator() : Evaluator.load(Paths.get(weightsPath)));
+            return;
+        }
+        if (exportPath != null) {
+            exportPdn(Paths.get(exportPath));
+            return;
+        }
+        if (importPath != null) {
+            if (recordPath == null) {
+                throw new IllegalArgumentException("--import-pdn needs --record to name the log to write");
+            }
+            importPdn(Paths.get(importPath), Paths.get(recordPath));
+            return;
+        }
+        if (servePort >= 0) {
+            if (metrics) {
+                Metrics.enable().register();
+            }
+            Server server = new Server(servePort);
+            if (checkpointPath != null) {
+                server.checkpointTo(Paths.get(checkpointPath), checkpointMillis);
+            }
+            server.run();
+            return;
+        }
+        if (loadAddress != null) {
+            String[] address = loadAddress.split(":");
+            System.out.print(new LoadGenerator(address[0], Integer.parseInt(address[1]), loadClients, loadMoves,
+                    loadIdle, seed).run());
+            return;
+        }
+        if (scriptPath != null) {
+            System.exit(runScripts(scriptPath, boardSize, rules, threads) ? 0 : 1);
+            return;
+        }
+        if (simulatedGames > 0) {
+            Simulator simulator = new Simulator(redPolicy, blackPolicy, maxPlies, engineDepth, seed);
+            simulator.useRules(rules);
+            if (recordPath == null) {
+                System.out.print(simulator.run(simulatedGames, threads).report());
+            } else {
+                try (OutputStream log = GameRecord.append(Paths.get(recordPath))) {
+                    simulator.recordTo(log);
+                    System.out.print(simulator.run(simulatedGames, threads).report());
+                }
+            }
+            return;
+        }
+        if (perftDepth > 0) {
+            runPerft(fen, rules, perftDepth, perftDivide, threads);
+            return;
+        }
+        if (metrics) {
+            Metrics.enable().register();
+        }
+        OpeningBook book = bookPath == null ? null : new OpeningBook(Paths.get(bookPath));
+        EndgameDatabase endgames = endgamesPath == null ? null : new EndgameDatabase(Paths.get(endgamesPath));
+        for (Team team : engineTeams) {
+            Engine engine = new Engine(engineTimeMillis, engineHashMegabytes,
+                    TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED, engineThreads);
+            engine.useBook(book);
+            engine.useEndgames(endgames);
+            engines.put(team, engine);
+        }
+        Analyst analyst = new Analyst(hintDepth, blunderPlies, Analyst.DEFAULT_CACHE_SIZE);
 
-        StringTokenizer st = new StringTokenizer(br.readLine());
-        Team nextTeam = Team.valueOf(st.nextToken().toUpperCase());
-        Team previousTeam = nextTeam == Team.BLACK ? Team.RED : Team.BLACK;
+        Renderer renderer = new Renderer(System.out, renderMode);
+        BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+        Path snapshot = snapshotPath == null ? null : Paths.get(snapshotPath);
+        Game game;
+        Team nextTeam;
+        if (snapshot != null && Files.exists(snapshot)) {
+            // The saved game keeps its own board size, rules and draw limit
+            Snapshot saved = Snapshot.load(snapshot);
+            game = saved.restore();
+            nextTeam = saved.nextTeam;
+            renderer.line("Welcome back! Resuming the game saved in " + snapshot + " after " + saved.turnsEnded()
+                    + " turns.");
+        } else {
+            renderer.line("Welcome! Starting a new game of Checkers.");
+            game = new Game(boardSize);
+            game.setUp();
+            game.noProgressLimit = noProgressLimit;
+            game.rules = rules;
+            if (renderMode != Renderer.Mode.FEN) {
+                // FEN needs the team to move, which is not known until the user picks it
+                renderer.board(game, null);
+            }
+            renderer.line("Which team will start? Enter Red or Black:").flush();
+            StringTokenizer st = new StringTokenizer(br.readLine());
+            nextTeam = Team.valueOf(st.nextToken().toUpperCase());
+        }
+        game.moveCache().checked = checkMoves;
+        game.endgames = endgames;
+        if (recordPath != null) {
+            game.recorder = new GameRecord.LogWriter(GameRecord.append(Paths.get(recordPath)));
+            game.recorder.begin(game, nextTeam);
+        }
         while (!game.isComplete) {
-            st = newTurn(nextTeam, game, br);
+            String command;
+            if (engines.containsKey(nextTeam)) {
+                // The engine's turns are neither hinted nor second guessed
+                game.analyst = null;
+                command = engineTurn(nextTeam, game, engines.get(nextTeam), renderer);
+            } else {
+                game.analyst = analyst;
+                command = newTurn(nextTeam, game, br, renderer);
+            }
             boolean success = false;
             while (!success) {
-                success = executeTurn(game, st);
+                success = executeTurn(game, nextTeam, new StringTokenizer(command), System.out);
+                if (success && game.recorder != null) {
+                    game.recorder.endTurn();
+                    game.recorder.flush();
+                }
                 if (success) {
-                    Team temp = previousTeam;
-                    previousTeam = nextTeam;
-                    nextTeam = temp;
+                    nextTeam = opponentOf(nextTeam);
+                    game.endTurn(nextTeam);
+                    if (snapshot != null) {
+                        game.snapshot(nextTeam).save(snapshot);
+                    }
                 } else {
-                    System.out.println("The move provided could not be executed. Please provide a valid move.");
-                    st = promptForMove(br);
+                    if (!isHintRequest(command)) {
+                        System.out.println("The move provided could not be executed. Please provide a valid move.");
+                    }
+                    command = promptForMove(br);
                 }
             }
         }
-        game.printBoard();
-        System.out.println("Congratulations " + previousTeam + " team, you won!");
+        renderer.board(game, nextTeam);
+        if (game.winner == null) {
+            renderer.line("The game is drawn " + game.result.description + ".");
+        } else if (game.result == GameResult.ALL_CAPTURED) {
+            renderer.line("Congratulations " + game.winner + " team, you won!");
+        } else {
+            renderer.line("Congratulations " + game.winner + " team, you won " + game.result.description + "!");
+        }
+        renderer.finish();
+        if (metrics) {
+            System.out.print(Metrics.active().getReport());
+        }
+        if (game.recorder != null) {
+            game.recorder.end();
+            game.recorder.close();
+        }
+        if (snapshot != null) {
+            // A finished game has nothing to resume, so the next run starts afresh
+            Files.deleteIfExists(snapshot);
+        }
         br.close();
     }
 
+    /**
+     * Counts the positions reachable from a position, printing the total and the
+     * speed of the count
+     * 
+     * @param fen     the starting position
+     * @param rules   the rules turns are generated under
+     * @param depth   the number of turns to play
+     * @param divide  set true to also print the count below each root turn
+     * @param threads the number of threads to count with
+     */
+    private static void runPerft(String fen, Rules rules, int depth, boolean divide, int threads) {
+        Game game = Fen.parse(fen);
+        game.rules = rules;
+        Perft.Division division = Perft.divide(game, Fen.sideToMove(fen), depth, threads);
+        if (divide) {
+            for (int i = 0; i < division.turns.length; i++) {
+                System.out.println(division.turns[i] + ": " + division.counts[i]);
+            }
+        }
+        System.out.println("perft(" + depth + ") = " + division.nodes + " in " + (division.elapsedNanos / 1_000_000)
+                + " ms (" + division.nodesPerSecond() + " nodes/s)");
+    }
+
+    /**
+     * Plays a script, or every script in a directory, printing the first illegal turn
+     * of each script that has one
+     * 
+     * @param path      a script file, a directory of scripts or {@code -} to read one
+     *                  script from standard input
+     * @param boardSize the length and width of the board the scripts play on
+     * @param rules     the rules the scripts are checked against
+     * @param threads   the number of threads to play a directory with
+     * @return set true if every turn of every script was legal
+     * @throws IOException if a script cannot be read
+     */
+    private static boolean runScripts(String path, int boardSize, Rules rules, int threads) throws IOException {
+        long start = System.nanoTime();
+        List<Script.Result> results;
+        if (path.equals("-")) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+            results = List.of(new Script(boardSize, rules).play("stdin", in));
+        } else if (Files.isDirectory(Paths.get(path))) {
+            results = Script.playAll(Paths.get(path), boardSize, rules, threads);
+        } else {
+            try (BufferedReader in = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+                results = List.of(new Script(boardSize, rules).play(path, in));
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        long plies = 0;
+        int illegal = 0;
+        for (Script.Result result : results) {
+            plies += result.plies;
+            if (!result.isLegal()) {
+                illegal++;
+            }
+            if (!result.isLegal() || results.size() == 1) {
+                System.out.println(result.describe());
+            }
+        }
+        System.out.printf("Played %d scripts (%d plies) in %d ms (%.0f plies/s), %d with an illegal turn%n",
+                results.size(), plies, elapsedNanos / 1_000_000, plies * 1e9 / Math.max(1, elapsedNanos), illegal);
+        return illegal == 0;
+    }
+
+    /**
+     * Scores every position in a file of PDN FEN lines for the team to move, printing
+     * each score before its position and then how quickly the positions were scored.
+     * Positions on packed boards are scored in batches
+     * 
+     * @param path      the positions, or {@code -} to read them from standard input
+     * @param boardSize the length and width of the boards
+     * @param evaluator the weights to score with
+     * @throws IOException if the positions cannot be read
+     */
+    private static void runEvaluation(String path, int boardSize, Evaluator evaluator) throws IOException {
+        int batchSize = 4096;
+        Evaluator.Batch batch = boardSize > BitBoard.MAX_PACKED_SIZE ? null
+                : new Evaluator.Batch(boardSize, batchSize);
+        String[] positions = new String[batchSize];
+        Team[] teams = new Team[batchSize];
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false, StandardCharsets.US_ASCII);
+        long start = System.nanoTime();
+        long scoringNanos = 0;
+        long count = 0;
+        try (BufferedReader in = path.equals("-") ? new BufferedReader(new InputStreamReader(System.in))
+                : Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String fen = line.trim();
+                if (fen.isEmpty() || fen.startsWith("#")) {
+                    continue;
+                }
+                Game game = Fen.parse(fen, boardSize);
+                Team team = Fen.sideToMove(fen);
+                count++;
+                if (batch == null) {
+                    long started = System.nanoTime();
+                    int score = evaluator.evaluate(game, team);
+                    scoringNanos += System.nanoTime() - started;
+                    out.println(score + "\t" + fen);
+                    continue;
+                }
+                positions[batch.size] = fen;
+                teams[batch.size] = team;
+                batch.add(game.board);
+                if (batch.isFull()) {
+                    scoringNanos += printScores(batch, evaluator, positions, teams, out);
+                }
+            }
+        }
+        if (batch != null) {
+            scoringNanos += printScores(batch, evaluator, positions, teams, out);
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        out.printf("Scored %d positions in %d ms (%.0f positions/s scoring, %.0f positions/s with parsing)%n", count,
+                elapsedNanos / 1_000_000, count * 1e9 / Math.max(1, scoringNanos),
+                count * 1e9 / Math.max(1, elapsedNanos));
+        out.flush();
+    }
+
+    /*
+     * Scores a batch, prints each score for the team to move and empties the batch,
+     * returning the nanoseconds spent scoring
+     */
+    private static long printScores(Evaluator.Batch batch, Evaluator evaluator, String[] positions, Team[] teams,
+            PrintStream out) {
+        long started = System.nanoTime();
+        evaluator.evaluate(batch);
+        long scoringNanos = System.nanoTime() - started;
+        for (int i = 0; i < batch.size; i++) {
+            out.println((teams[i] == Team.RED ? batch.scores[i] : -batch.scores[i]) + "\t" + positions[i]);
+        }
+        batch.clear();
+        return scoringNanos;
+    }
+
+    /**
+     * Replays every record of a game log, checking each move, and prints how many
+     * games each team won, how many were drawn and how quickly they were replayed
+     * 
+     * @param log the game log to read
+     * @throws IOException if the log cannot be read
+     */
+    private static void replayLog(Path log) throws IOException {
+        long start = System.nanoTime();
+        long games = 0;
+        long turns = 0;
+        long draws = 0;
+        Map<Team, Long> wins = new EnumMap<>(Team.class);
+        GameRecord record = new GameRecord();
+        Game game = new Game(8);
+        try (GameRecord.LogReader reader = new GameRecord.LogReader(log)) {
+            while (reader.next(record)) {
+                if (game.boardSize != record.boardSize) {
+                    game = new Game(record.boardSize);
+                }
+                record.load(game);
+                Team winner = record.replay(game);
+                if (winner != null) {
+                    wins.merge(winner, 1L, Long::sum);
+                } else if (game.result != null) {
+                    draws++;
+                }
+                games++;
+                turns += record.turnCount;
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        System.out.printf("Replayed %d games (%d turns) in %d ms (%.0f games/s)%n", games, turns,
+                elapsedNanos / 1_000_000, games * 1e9 / Math.max(1, elapsedNanos));
+        System.out.println("Red wins: " + wins.getOrDefault(Team.RED, 0L) + ", black wins: "
+                + wins.getOrDefault(Team.BLACK, 0L) + ", draws: " + draws + ", unfinished: "
+                + (games - wins.getOrDefault(Team.RED, 0L) - wins.getOrDefault(Team.BLACK, 0L) - draws));
+    }
+
+    /**
+     * Prints every record of a game log as PDN
+     * 
+     * @param log the game log to read
+     * @throws IOException if the log cannot be read
+     */
+    private static void exportPdn(Path log) throws IOException {
+        GameRecord record = new GameRecord();
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false, StandardCharsets.US_ASCII);
+        try (GameRecord.LogReader reader = new GameRecord.LogReader(log)) {
+            while (reader.next(record)) {
+                record.writePdn(out);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Appends every game of a PDN file to a game log
+     * 
+     * @param pdn the PDN file to read
+     * @param log the game log to append to
+     * @throws IOException if either file cannot be used
+     */
+    private static void importPdn(Path pdn, Path log) throws IOException {
+        GameRecord record = new GameRecord();
+        int games = 0;
+        try (BufferedReader in = Files.newBufferedReader(pdn, StandardCharsets.UTF_8);
+                GameRecord.LogWriter writer = new GameRecord.LogWriter(GameRecord.append(log))) {
+            while (record.readPdn(in)) {
+                record.replay(record.startPosition());
+                writer.write(record);
+                games++;
+            }
+        }
+        System.out.println("Imported " + games + " games into " + log);
+    }
+
+    /**
+     * Searches the opening position of a standard game to a fixed depth with 1, 2, 4
+     * and 8 threads, plus every available core, printing the speed of each. The
+     * chosen turn and score should match for every thread count
+     * 
+     * @param depth         the number of plies to search
+     * @param hashMegabytes the memory for each engine's transposition table
+     */
+    private static void runEngineBenchmark(int depth, int hashMegabytes) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<>(List.of(1, 2, 4, 8));
+        if (!threadCounts.contains(cores)) {
+            threadCounts.add(cores);
+        }
+        Collections.sort(threadCounts);
+        // Warm up the JIT so the single thread run is not measured while compiling
+        new Engine(Engine.DEFAULT_TIME_MILLIS, hashMegabytes, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED, 1)
+                .searchToDepth(new Game(), Team.RED, depth);
+        System.out.println("Searching the opening to depth " + depth + " on " + cores + " available cores");
+        System.out.println("threads\tturn\tscore\tnodes\tms\tnodes/s\tspeedup");
+        long baselineNanos = 0;
+        for (int threads : threadCounts) {
+            Engine engine = new Engine(Engine.DEFAULT_TIME_MILLIS, hashMegabytes,
+                    TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED, threads);
+            Game game = new Game();
+            Engine.SearchResult result = engine.searchToDepth(game, Team.RED, depth);
+            if (threads == 1) {
+                baselineNanos = result.elapsedNanos;
+            }
+            System.out.printf("%d\t%s\t%d\t%d\t%d\t%d\t%.2f%n", threads, result.toCommand(game.board), result.score,
+                    result.nodes, result.elapsedNanos / 1_000_000, result.nodesPerSecond(),
+                    (double) baselineNanos / result.elapsedNanos);
+        }
+    }
+
     /**
      * Prints instructions prompting the user for the move input
      * 
@@ -52,14 +675,29 @@ class Main {
      * @return the input provided by the user
      * @throws IOException
      */
-    private static StringTokenizer promptForMove(BufferedReader br) throws IOException {
+    private static String promptForMove(BufferedReader br) throws IOException {
         System.out.println(
                 "Please select your move. Enter the move or capture (m or c), the location of the piece you would like to move, and the location you would like to place that piece:");
         System.out.println("Example: m 0 2 1 3");
         System.out.println(
                 "If you want to attempt multiple sequential captures, you may add subsequent locations to jump too in the exact order you wish them to execute.");
         System.out.println("Example: c 0 2 2 4 4 6");
-        return new StringTokenizer(br.readLine());
+        System.out.println("For the best moves enter h, optionally followed by how many to list.");
+        Metrics metrics = Metrics.active();
+        long started = metrics == null ? 0L : metrics.begin();
+        String line = br.readLine();
+        if (metrics != null) {
+            metrics.end(Metrics.Timer.INPUT, started);
+        }
+        return line;
+    }
+
+    /*
+     * Checks if a line of input asks for hints rather than playing a turn
+     */
+    private static boolean isHintRequest(String command) {
+        StringTokenizer st = new StringTokenizer(command);
+        return st.hasMoreTokens() && st.nextToken().equalsIgnoreCase("h");
     }
 
     /**
@@ -68,41 +706,125 @@ class Main {
      * @param nextTeam the team executing the turn
      * @param game     the current game
      * @param br       the bufferred reader capturing the user input
+     * @param renderer draws the board and the available moves
      * @return the input provided by the user
      * @throws IOException
      */
-    private static StringTokenizer newTurn(Team nextTeam, Game game, BufferedReader br) throws IOException {
-        game.printBoard();
-        System.out.println("Gathering are all possible moves for the " + nextTeam + " team.");
-        Map<Checker, List<Location>> validMoves = getValidMovesForTeam(game, false, nextTeam);
-        System.out.println("Here are all the possible moves for the " + nextTeam + " team:");
-        printMoves(validMoves);
+    private static String newTurn(Team nextTeam, Game game, BufferedReader br, Renderer renderer)
+            throws IOException {
+        renderer.board(game, nextTeam);
+        printEndgameResult(nextTeam, game, renderer);
+        renderer.line("Gathering are all possible moves for the " + nextTeam + " team.");
+        if (game.rules == Rules.STANDARD && game.board.hasCapture(nextTeam)) {
+            renderer.line("A capture is available, so the " + nextTeam + " team must capture.");
+        } else {
+            Map<Checker, List<Location>> validMoves = getValidMovesForTeam(game, false, nextTeam);
+            renderer.line("Here are all the possible moves for the " + nextTeam + " team:");
+            renderer.moves(validMoves);
+        }
         Map<Checker, List<Location>> validCaptures = getValidMovesForTeam(game, true, nextTeam);
-        System.out.println("Here are all the possible captures for the " + nextTeam + " team:");
-        printMoves(validCaptures);
+        renderer.line("Here are all the possible captures for the " + nextTeam + " team:");
+        renderer.moves(validCaptures);
+        renderer.line("Here are all the sequential captures for the " + nextTeam + " team:");
+        for (Checker checker : validCaptures.keySet()) {
+            for (List<Location> chain : getCaptureChains(game, checker)) {
+                if (chain.size() > 1) {
+                    renderer.chain(checker.location, chain);
+                }
+            }
+        }
+        renderer.flush();
         return promptForMove(br);
     }
 
     /**
-     * Executes a turn based on input from the user
+     * Lets the engine choose the turn for a team, reporting what it chose and how
+     * quickly it searched
+     * 
+     * @param nextTeam the team executing the turn
+     * @param game     the current game
+     * @param engine   the engine playing for the team
+     * @param renderer draws the board and the chosen turn
+     * @return the chosen turn, in the same form a user would enter it
+     */
+    private static String engineTurn(Team nextTeam, Game game, Engine engine, Renderer renderer) {
+        renderer.board(game, nextTeam);
+        printEndgameResult(nextTeam, game, renderer);
+        Engine.SearchResult result = engine.search(game, nextTeam);
+        String command = result.toCommand(game.board);
+        if (result.fromBook) {
+            renderer.line("The " + nextTeam + " engine plays from its opening book: " + command).flush();
+            return command;
+        }
+        renderer.line("The " + nextTeam + " engine plays: " + command);
+        renderer.line("Searched " + result.nodes + " nodes to depth " + result.depth + " in "
+                + (result.elapsedNanos / 1_000_000) + " ms (" + result.nodesPerSecond() + " nodes/s), score "
+                + result.score);
+        renderer.flush();
+        return command;
+    }
+
+    /**
+     * Prints the exact result of the game when the endgame database knows it
+     * 
+     * @param nextTeam the team about to take its turn
+     * @param game     the current game
+     * @param renderer the frame to add the result to
+     */
+    private static void printEndgameResult(Team nextTeam, Game game, Renderer renderer) {
+        int result = game.probeEndgame(nextTeam);
+        if (result != EndgameDatabase.UNKNOWN) {
+            renderer.line("Endgame database: " + EndgameDatabase.describe(result) + " for the " + nextTeam
+                    + " team with best play.");
+        }
+    }
+
+    /**
+     * Executes a turn based on input from the user, or answers a request for hints
+     * when the game has an analyst
      * 
      * @param game the current game
+     * @param team the team taking the turn
      * @param st   the user input
+     * @param out  where to report problems with the input, hints and warnings
      * @return set true if the turn was executed successfully
      */
-    private static boolean executeTurn(Game game, StringTokenizer st) {
+    private static boolean executeTurn(Game game, Team team, StringTokenizer st, PrintStream out) {
         boolean success = false;
+        Metrics metrics = Metrics.active();
+        long started = metrics == null ? 0L : metrics.begin();
+        boolean parsed = false;
         try {
             String moveType = st.nextToken(" ").toLowerCase();
+            boolean standard = game.rules == Rules.STANDARD;
             if (moveType.equals("s")) {
-                System.out.println("Player has chosed to skip turn.");
+                if (standard) {
+                    out.println("Turns cannot be skipped under standard rules.");
+                    return false;
+                }
+                out.println("Player has chosed to skip turn.");
                 return true;
             }
+            if (moveType.equals("h")) {
+                int hints = st.hasMoreTokens() ? Integer.parseInt(st.nextToken(" ")) : Analyst.DEFAULT_HINTS;
+                parsed = finishParse(metrics, started);
+                if (game.analyst == null) {
+                    out.println("Hints are only available in the console game.");
+                } else if (hints < 1) {
+                    out.println("Ask for at least one hint.");
+                } else {
+                    game.analyst.hint(game, team, hints, out);
+                }
+                return false;
+            }
             boolean isCapture = moveType.equals("c");
             Location start = new Location(Integer.parseInt(st.nextToken(" ")), Integer.parseInt(st.nextToken(" ")));
             Optional<Checker> toMove = game.getCheckerByLocation(start);
             if (toMove.isEmpty()) {
-                System.out.println("Please select a valid start location.");
+                out.println("Please select a valid start location.");
+            } else if (toMove.get().team != team) {
+                parsed = finishParse(metrics, started);
+                out.println("The checker belongs to the " + toMove.get().team + " team.");
             } else {
                 Location end = new Location(Integer.parseInt(st.nextToken(" ")), Integer.parseInt(st.nextToken(" ")));
                 if (isCapture) {
@@ -112,31 +834,118 @@ class Main {
                         captures.add(
                                 new Location(Integer.parseInt(st.nextToken(" ")), Integer.parseInt(st.nextToken(" "))));
                     }
-                    success = capture(game, toMove.get(), captures);
+                    parsed = finishParse(metrics, started);
+                    if (standard && !isCaptureChain(game, toMove.get(), captures, true)) {
+                        out.println("Under standard rules a capture must continue until no jump is left.");
+                    } else {
+                        checkForBlunder(game, team, toMove.get(), captures, true, out);
+                        success = capture(game, toMove.get(), captures);
+                    }
                 } else {
-                    success = move(game, toMove.get(), end);
+                    parsed = finishParse(metrics, started);
+                    if (standard && game.board.hasCapture(team)) {
+                        out.println("A capture is available, and captures are mandatory under standard rules.");
+                    } else {
+                        checkForBlunder(game, team, toMove.get(), List.of(end), false, out);
+                        success = move(game, toMove.get(), end);
+                    }
                 }
             }
         } catch (RuntimeException e) {
-            System.out.println("The provided input is not in the correct format.");
+            out.println("The provided input is not in the correct format.");
+        } finally {
+            if (!parsed) {
+                finishParse(metrics, started);
+            }
         }
         return success;
     }
 
+    /*
+     * Asks the game's analyst, if it has one, whether a turn gives up checkers
+     * another turn would keep. Only legal turns are analysed, so input that is about
+     * to be rejected never pays for the search
+     */
+    private static void checkForBlunder(Game game, Team team, Checker checker, List<Location> path,
+            boolean isCapture, PrintStream out) {
+        if (game.analyst == null) {
+            return;
+        }
+        BitBoard board = game.board;
+        Location start = checker.location;
+        if (isCapture) {
+            // The analyst ranks every turn the rules allow: complete chains under
+            // standard rules, and any chain stopped part way under casual rules, which
+            // is how a capture that should have continued is warned about
+            if (!isCaptureChain(game, checker, path, game.rules == Rules.STANDARD)) {
+                return;
+            }
+        } else {
+            Location end = path.get(0);
+            if (!board.isOnBoard(end.x, end.y)
+                    || !game.moveCache().isValidMove(board.square(start.x, start.y), board.square(end.x, end.y))) {
+                return;
+            }
+        }
+        StringBuilder command = new StringBuilder(isCapture ? "c" : "m");
+        command.append(' ').append(start.x).append(' ').append(start.y);
+        for (Location location : path) {
+            command.append(' ').append(location.x).append(' ').append(location.y);
+        }
+        game.analyst.checkTurn(game, team, command.toString(), out);
+    }
+
+    /*
+     * Checks a capture sequence against the jumps available to a checker, and when
+     * complete is set, requires it to end where no further jump is possible
+     */
+    private static boolean isCaptureChain(Game game, Checker checker, List<Location> captures, boolean complete) {
+        JumpTree chains = game.findCaptureChains(checker.location);
+        int node = JumpTree.ROOT;
+        for (Location capture : captures) {
+            if (!game.board.isOnBoard(capture.x, capture.y)) {
+                return false;
+            }
+            node = chains.child(node, game.board.square(capture.x, capture.y));
+            if (node == JumpTree.NONE) {
+                return false;
+            }
+        }
+        return !complete || chains.isLeaf(node);
+    }
+
+    /*
+     * Records the time spent reading a turn's input, which ends either when the turn
+     * is handed on to be played or when the input is found wanting
+     */
+    private static boolean finishParse(Metrics metrics, long started) {
+        if (metrics != null) {
+            metrics.end(Metrics.Timer.PARSE, started);
+        }
+        return true;
+    }
+
     /**
-     * Print a series of moves
+     * Describes a turn in the same form a user would enter it
      * 
-     * @param moves the checker mapped to it's corresponding available moves
+     * @param board  the board the turn is for
+     * @param hops   the buffer holding the packed moves of the turn
+     * @param start  the index of the turn's first move in the buffer
+     * @param length the number of moves in the turn, 0 for a skipped turn
+     * @return a move, capture or skip command
      */
-    private static void printMoves(Map<Checker, List<Location>> moves) {
-        for (Map.Entry<Checker, List<Location>> entry : moves.entrySet()) {
-            System.out.print("(" + entry.getKey().location + ")");
-            System.out.print(" -> ");
-            for (Location move : entry.getValue()) {
-                System.out.print("(" + move + "), ");
-            }
-            System.out.println();
+    private static String formatTurn(BitBoard board, int[] hops, int start, int length) {
+        if (length == 0) {
+            return "s";
+        }
+        StringBuilder command = new StringBuilder(BitBoard.isCapture(hops[start]) ? "c" : "m");
+        int from = BitBoard.moveFrom(hops[start]);
+        command.append(' ').append(from % board.boardSize).append(' ').append(from / board.boardSize);
+        for (int i = start; i < start + length; i++) {
+            int to = BitBoard.moveTo(hops[i]);
+            command.append(' ').append(to % board.boardSize).append(' ').append(to / board.boardSize);
         }
+        return command.toString();
     }
 
     /**
@@ -150,42 +959,68 @@ class Main {
      *                 attempt provided in order
      * @return set true if at least one capture was completed successfully
      */
-    private static boolean capture(Game game, Checker checker, List<Location> captures) {
+    static boolean capture(Game game, Checker checker, List<Location> captures) {
+        Metrics metrics = Metrics.active();
+        long started = metrics == null ? 0L : metrics.begin();
+        BitBoard board = game.board;
+        int from = board.isOnBoard(checker.location.x, checker.location.y)
+                ? board.square(checker.location.x, checker.location.y)
+                : -1;
         boolean success = false;
         // Multiple captures can occur in succession, provided the previous capture was
-        // successful
+        // successful. Each capture updates the move cache, so the next is checked
+        // against the position it left
         for (Location capture : captures) {
-            if (game.isComplete) {
+            if (game.isComplete || from < 0) {
                 break;
             }
-            Map<Checker, List<Location>> validCaptures = getValidMovesForTeam(game, true, checker.team);
-            if (validCaptures.get(checker).contains(capture)) {
-                Location checkerToCapture = getLocationOfCheckerToCapture(checker.location, capture);
-                Optional<Checker> toRemove = game.checkers.stream()
-                        .filter(c -> (c.location.equals(checkerToCapture)))
-                        .findAny();
-                if (toRemove.isPresent()) {
-                    game.checkers.remove(toRemove.get());
-                    checker.location = capture;
-                    if (!checker.isKing) {
-                        checker.isKing = shouldBeKing(checker, game.boardSize);
-                    }
-                    if (!(game.checkers.stream()
-                            .filter(currentChecker -> currentChecker.team != checker.team)
-                            .findAny()
-                            .isPresent())) {
-                        game.isComplete = true;
-                    }
-                    success = true;
-                }
-            } else {
+            int to = board.isOnBoard(capture.x, capture.y) ? board.square(capture.x, capture.y) : -1;
+            if (to < 0 || !game.moveCache().isValidCapture(from, to)) {
                 // If the capture was unsuccessful, do not attempt any further captures
                 break;
             }
+            int hop = BitBoard.encodeCapture(from, to, board.middleSquare(from, to));
+            game.makeMove(hop);
+            if (game.recorder != null) {
+                game.recorder.hop(hop);
+            }
+            if (metrics != null) {
+                metrics.captureExecuted();
+            }
+            from = to;
+            success = true;
+        }
+        if (metrics != null) {
+            metrics.end(Metrics.Timer.CAPTURE, started);
         }
         return success;
     }
 
+    /**
+     * Finds every complete sequence of captures a checker could make, where each
+     * sequence continues until no further capture is possible
+     * 
+     * @param game    the current game
+     * @param checker the checker piece to use for capturing
+     * @return each sequence as the locations to jump to in order
+     */
+    static List<List<Location>> getCaptureChains(Game game, Checker checker) {
+        JumpTree chains = game.findCaptureChains(checker.location);
+        List<List<Location>> captureChains = new ArrayList<>();
+        int[] hops = new int[chains.size()];
+        for (int node = JumpTree.ROOT + 1; node < chains.size(); node++) {
+            if (chains.isLeaf(node)) {
+                int length = chains.chain(node, hops);
+                List<Location> chain = new ArrayList<>();
+                for (int i = 0; i < length; i++) {
+                    chain.add(game.board.locationOf(BitBoard.moveTo(hops[i])));
+                }
+                captureChains.add(chain);
+            }
+        }
+        return captureChains;
+    }
+
     /**
      * Executes a move for a given piece provided the move is valid. If the checker
      * reaches the opposite side of the board, the checker
@@ -197,15 +1032,28 @@ class Main {
      * @return set true if move successfully executed
      */
     private static boolean move(Game game, Checker checker, Location move) {
-        Map<Checker, List<Location>> validMoves = getValidMovesForTeam(game, false, checker.team);
-        if (validMoves.get(checker).contains(move)) {
-            checker.location = move;
-            if (!checker.isKing) {
-                checker.isKing = shouldBeKing(checker, game.boardSize);
+        Metrics metrics = Metrics.active();
+        long started = metrics == null ? 0L : metrics.begin();
+        BitBoard board = game.board;
+        boolean success = false;
+        if (board.isOnBoard(checker.location.x, checker.location.y) && board.isOnBoard(move.x, move.y)) {
+            int from = board.square(checker.location.x, checker.location.y);
+            int to = board.square(move.x, move.y);
+            if (game.moveCache().isValidMove(from, to)) {
+                game.makeMove(BitBoard.encodeMove(from, to));
+                if (game.recorder != null) {
+                    game.recorder.hop(BitBoard.encodeMove(from, to));
+                }
+                success = true;
             }
-            return true;
         }
-        return false;
+        if (metrics != null) {
+            if (success) {
+                metrics.moveExecuted();
+            }
+            metrics.end(Metrics.Timer.MOVE, started);
+        }
+        return success;
     }
 
     /**
@@ -224,23 +1072,13 @@ class Main {
     }
 
     /**
-     * Checks whether or not a checker should become king
+     * Provides the team playing against the given team
      * 
-     * @param checker   the checker to inspect
-     * @param boardSize the size of the board
-     * @return true if the checker should become a king
+     * @param team the team to find the opponent of
+     * @return the opposing team
      */
-    private static boolean shouldBeKing(Checker checker, int boardSize) {
-        if (checker.team == Team.RED) {
-            if (checker.location.y == 0) {
-                return true;
-            }
-        } else {
-            if (checker.location.y == boardSize - 1) {
-                return true;
-            }
-        }
-        return false;
+    static Team opponentOf(Team team) {
+        return team == Team.RED ? Team.BLACK : Team.RED;
     }
 
     /**
@@ -253,24 +1091,8 @@ class Main {
      *         checker could execute for the given game
      */
     private static Map<Checker, List<Location>> getAllValidMoves(Game game, boolean isCapture) {
-        Map<Location, Checker> locationToCheckerMap = game.getLocationToCheckerMapping();
-        Map<Checker, List<Location>> validMovesPerChecker = new HashMap<>();
-        for (Checker checker : game.checkers) {
-            List<Location> allPossibleMoves = getAllPossibleMoves(checker, isCapture);
-            List<Location> validMoves = new ArrayList<>();
-            for (Location move : allPossibleMoves) {
-                if (isCapture) {
-                    if (isValidCapture(game.boardSize, checker, move, locationToCheckerMap)) {
-                        validMoves.add(move);
-                    }
-                } else {
-                    if (isValidMove(game.boardSize, checker, move, new ArrayList<>(locationToCheckerMap.keySet()))) {
-                        validMoves.add(move);
-                    }
-                }
-            }
-            validMovesPerChecker.put(checker, validMoves);
-        }
+        Map<Checker, List<Location>> validMovesPerChecker = getValidMovesForTeam(game, isCapture, Team.RED);
+        validMovesPerChecker.putAll(getValidMovesForTeam(game, isCapture, Team.BLACK));
         return validMovesPerChecker;
     }
 
@@ -284,118 +1106,30 @@ class Main {
      * @return a mapping of each checker and the list of valid moves or captures the
      *         checker could execute for the given game
      */
-    private static Map<Checker, List<Location>> getValidMovesForTeam(Game game, boolean isCapture, Team team) {
-        Map<Location, Checker> locationToCheckerMap = game.getLocationToCheckerMapping();
-        Map<Checker, List<Location>> validMovesPerChecker = new HashMap<>();
-        List<Checker> checkersForTeam = game.checkers.stream().filter(checker -> (checker.team == team))
-                .collect(Collectors.toList());
-        for (Checker checker : checkersForTeam) {
-            List<Location> allPossibleMoves = getAllPossibleMoves(checker, isCapture);
+    static Map<Checker, List<Location>> getValidMovesForTeam(Game game, boolean isCapture, Team team) {
+        Metrics metrics = Metrics.active();
+        long started = metrics == null ? 0L : metrics.begin();
+        BitBoard board = game.board;
+        Map<Checker, List<Location>> validMovesPerChecker = new LinkedHashMap<>();
+        int[] squares = new int[board.pieceCount(team)];
+        Arrays.sort(squares, 0, board.pieceSquares(team, squares));
+        List<List<Location>> movesPerPiece = new ArrayList<>(squares.length);
+        for (int square : squares) {
             List<Location> validMoves = new ArrayList<>();
-            for (Location move : allPossibleMoves) {
-                if (isCapture) {
-                    if (isValidCapture(game.boardSize, checker, move, locationToCheckerMap)) {
-                        validMoves.add(move);
-                    }
-                } else {
-                    if (isValidMove(game.boardSize, checker, move, new ArrayList<>(locationToCheckerMap.keySet()))) {
-                        validMoves.add(move);
-                    }
-                }
-            }
-            validMovesPerChecker.put(checker, validMoves);
+            movesPerPiece.add(validMoves);
+            validMovesPerChecker.put(board.checkerAt(square), validMoves);
         }
-        return validMovesPerChecker;
-    }
-
-    /**
-     * Finds every possible move or captures a piece could make for the given game
-     * 
-     * @param checker   the current checker
-     * @param isCapture set true when searching for a valid captures
-     * @return a list of all moves or captures the checker could execute for the
-     *         given game
-     */
-    private static List<Location> getAllPossibleMoves(Checker checker, boolean isCapture) {
-        Location currentLocation = checker.location;
-        List<Location> possibleLocations = new ArrayList<>();
-
-        // Captures will leap frog the checker they are capturing during a capture,
-        // effectively moving two diagonals
-        int offset = isCapture ? 2 : 1;
-        Location upRight = new Location(currentLocation.x + offset, currentLocation.y - offset);
-        Location upLeft = new Location(currentLocation.x - offset, currentLocation.y - offset);
-        Location downRight = new Location(currentLocation.x + offset, currentLocation.y + offset);
-        Location downLeft = new Location(currentLocation.x - offset, currentLocation.y + offset);
-
-        // Kings are able to move up and down the board
-        if (checker.isKing) {
-            possibleLocations.add(upRight);
-            possibleLocations.add(upLeft);
-            possibleLocations.add(downRight);
-            possibleLocations.add(downLeft);
-        } else if (checker.team == Team.RED) {
-            possibleLocations.add(upRight);
-            possibleLocations.add(upLeft);
-        } else {
-            possibleLocations.add(downRight);
-            possibleLocations.add(downLeft);
+        int[] moves = board.newMoveBuffer();
+        int count = game.moveCache().generate(team, isCapture, moves);
+        for (int i = 0; i < count; i++) {
+            int piece = Arrays.binarySearch(squares, BitBoard.moveFrom(moves[i]));
+            movesPerPiece.get(piece).add(board.locationOf(BitBoard.moveTo(moves[i])));
         }
-        return possibleLocations;
-    }
-
-    /**
-     * Validates that given move is valid for the dimensions of the game board
-     * 
-     * @param boardSize    the size of the board, providing dimensions for possible
-     *                     checker locations
-     * @param proposedMove the move that is being attempted
-     * @return true if the move location is within the board dimensions
-     */
-    private static boolean isValidMoveForBoardDimensions(int boardSize, Location proposedMove) {
-        boolean isValidXCoordinate = proposedMove.x >= 0 && proposedMove.x < boardSize;
-        boolean isValidYCoordinate = proposedMove.y >= 0 && proposedMove.y < boardSize;
-        return isValidXCoordinate && isValidYCoordinate;
-    }
-
-    /**
-     * Checks if the proposed move is valid. A move is considered valid if it is
-     * within the dimensions the game board,
-     * and is not attempting to move to a space that is occupied by a checker.
-     * 
-     * @param boardSize           the size of the board, providing dimensions for
-     *                            possible checker locations
-     * @param currentChecker      the checker to validate the move against
-     * @param proposedMove        the move that is being attempted
-     * @param allCheckerLocations the locations of every checker on the board
-     * @return true if the move is valid
-     */
-    private static boolean isValidMove(int boardSize, Checker currentChecker, Location proposedMove,
-            List<Location> allCheckerLocations) {
-        return isValidMoveForBoardDimensions(boardSize, proposedMove) && !allCheckerLocations.contains(proposedMove);
-    }
-
-    /**
-     * Checks if the proposed capture is valid. A capture is considered valid if it
-     * is a valid move, and there is a checker
-     * of the opposing team in the space between where the capturing checker started
-     * and ended the move.
-     * 
-     * @param boardSize            the size of the board, providing dimensions for
-     *                             possible checker locations
-     * @param currentChecker       the checker to validate the move against
-     * @param proposedCapture      the capture that is being attempted
-     * @param locationToCheckerMap a mapping of the locations occupied by checkers,
-     *                             and their corresponding checker
-     * @return true if the move is valid
-     */
-    private static boolean isValidCapture(int boardSize, Checker currentChecker, Location proposedCapture,
-            Map<Location, Checker> locationToCheckerMap) {
-        Location toCapture = getLocationOfCheckerToCapture(currentChecker.location, proposedCapture);
-        boolean hasCheckerToCapture = locationToCheckerMap.containsKey(toCapture) &&
-                !(locationToCheckerMap.get(toCapture).team == currentChecker.team);
-        return isValidMove(boardSize, currentChecker, proposedCapture, new ArrayList<>(locationToCheckerMap.keySet()))
-                && hasCheckerToCapture;
+        if (metrics != null) {
+            metrics.movesGenerated(count);
+            metrics.end(Metrics.Timer.GENERATE, started);
+        }
+        return validMovesPerChecker;
     }
 
     /**
@@ -425,7 +1159,8 @@ class Main {
 
         @Override
         public int hashCode() {
-            return (this.x * 10) + this.y;
+            // Distinct for every location on any board a game can be played on
+            return (this.x << 16) ^ this.y;
         }
 
         @Override
@@ -482,102 +1217,7210 @@ class Main {
     }
 
     /*
-     * Models a single game of checkers
+     * How a game ended. Wins go to the team that made the last move, draws to
+     * nobody
      */
-    public static class Game {
+    public static enum GameResult {
         /*
-         * All the checkers for the current game
+         * The losing team has no checkers left
          */
-        public List<Checker> checkers;
-
+        ALL_CAPTURED("by capturing every checker", false),
         /*
-         * The length and width of the board. Helps understand the scope of valid
-         * checker locations
+         * The losing team has checkers, but none of them can move
          */
-        public int boardSize;
-
+        NO_MOVES("by leaving the other team without a move", false),
         /*
-         * Whether or not the game is completed. Set true when there are no remaining
-         * checkers for a given team
+         * The same position arose for the third time with the same team to move
          */
-        public boolean isComplete;
+        REPETITION("by threefold repetition", true),
+        /*
+         * Too many turns in a row passed without a capture or a checker moving
+         */
+        NO_PROGRESS("by the no progress rule", true);
 
-        public Game(int boardSize) {
-            this.boardSize = boardSize;
-            this.checkers = new ArrayList<>();
-            ;
-            this.isComplete = false;
+        public final String description;
+        public final boolean isDraw;
+
+        GameResult(String description, boolean isDraw) {
+            this.description = description;
+            this.isDraw = isDraw;
         }
+    }
 
-        /**
-         * Provides a game of standard size and setup for checkers
+    /*
+     * The rules a game is played under
+     */
+    public static enum Rules {
+        /*
+         * The console game's original rules: any move may be played while a capture
+         * is available, a capture sequence may stop at any jump and a turn may be
+         * skipped
+         */
+        CASUAL,
+        /*
+         * Captures are mandatory, a capture sequence continues until no jump is left
+         * and ends when the checker is crowned, and turns cannot be skipped
+         */
+        STANDARD
+    }
+
+    /*
+     * Models a single game of checkers
+     */
+    public static class Game {
+        /*
+         * The packed masks holding every checker for the current game
+         */
+        public BitBoard board;
+
+        /*
+         * The length and width of the board. Helps understand the scope of valid
+         * checker locations
+         */
+        public int boardSize;
+
+        /*
+         * Whether or not the game is completed. Set true when there are no remaining
+         * checkers for a given team, or when endTurn finds the game won or drawn
+         */
+        public boolean isComplete;
+
+        /*
+         * How the game ended, null while it is in progress
+         */
+        public GameResult result;
+
+        /*
+         * The rules turns are checked and generated under
+         */
+        public Rules rules = Rules.CASUAL;
+
+        /*
+         * The team that won, null while the game is in progress or when it was drawn
+         */
+        public Team winner;
+
+        /*
+         * The turns in a row without a capture or a checker (rather than a king)
+         * moving that draw the game, or 0 to never draw this way
+         */
+        public int noProgressLimit = DEFAULT_NO_PROGRESS_TURNS;
+
+        /*
+         * One entry for each turn ended with endTurn: the moves made when it ended,
+         * the position it left with the team to move, and how many turns in a row had
+         * passed without progress. Entries are dropped when unmakeMove takes back
+         * their moves, so a skipped turn goes with the move before it
+         */
+        private int[] turnEnds = new int[64];
+        private long[] turnPositions = new long[64];
+        private int[] quietTurns = new int[64];
+        private int turns;
+
+        /*
+         * How many times each position left by an ended turn has arisen
+         */
+        private final PositionCounts positions = new PositionCounts();
+
+        /*
+         * Reused by every capture chain search so that validating captures does not
+         * allocate
+         */
+        private final JumpTree jumpTree;
+
+        /*
+         * Two ints for every move made, holding the packed move and the flags needed to
+         * take it back
+         */
+        private int[] undoStack;
+        private int undoSize;
+
+        /*
+         * Receives every move played through the console commands, null when the game
+         * is not being recorded
+         */
+        public GameRecord.LogWriter recorder;
+
+        /*
+         * Solves positions with few checkers left, null when no database is loaded
+         */
+        public EndgameDatabase endgames;
+
+        /*
+         * Answers hint requests and warns of blunders in the turns entered, null when
+         * turns are not analysed
+         */
+        public Analyst analyst;
+
+        /*
+         * The moves available on the board, created by the first lookup and kept up to
+         * date by every move made after it. Copies of the game start without one
+         */
+        private MoveCache moveCache;
+
+        /*
+         * Flags recorded for each move made
+         */
+        private static final int PROMOTED = 1;
+        private static final int WAS_COMPLETE = 1 << 1;
+        private static final int CAPTURED_KING = 1 << 2;
+        private static final int CAPTURED_RED = 1 << 3;
+        private static final int MOVED_CHECKER = 1 << 4;
+
+        /*
+         * Forty moves by each team, the usual limit for the no progress rule
+         */
+        public static final int DEFAULT_NO_PROGRESS_TURNS = 80;
+
+        public Game(int boardSize) {
+            this.boardSize = boardSize;
+            this.board = new BitBoard(boardSize);
+            this.isComplete = false;
+            this.jumpTree = new JumpTree();
+            this.undoStack = new int[64];
+            this.undoSize = 0;
+        }
+
+        /**
+         * Provides a game of standard size and setup for checkers
          */
         public Game() {
-            this.boardSize = 8;
-            List<Checker> checkers = new ArrayList<>();
+            this(8);
+            setUp();
+        }
+
+        /**
+         * Fills the dark squares of the rows nearest each team with its checkers,
+         * leaving the two middle rows of the board empty. An 8x8 board gets three
+         * rows a side and the international 10x10 board four
+         */
+        public void setUp() {
+            int rows = (this.boardSize - 2) / 2;
             for (int i = 0; i < this.boardSize; i++) {
-                if (i > 2 && i < 5) {
+                if (i >= rows && i < this.boardSize - rows) {
                     continue;
                 }
                 for (int j = i % 2; j < this.boardSize; j += 2) {
-                    Location location = new Location(j, i);
-                    if (i <= 2) {
-                        checkers.add(new Checker(location, Team.BLACK));
+                    if (i < rows) {
+                        this.board.place(this.board.square(j, i), Team.BLACK, false);
                     } else {
-                        checkers.add(new Checker(location, Team.RED));
+                        this.board.place(this.board.square(j, i), Team.RED, false);
                     }
                 }
             }
-            this.checkers = checkers;
-            this.isComplete = false;
+        }
+
+        /**
+         * Places a checker on the board, replacing anything already occupying its
+         * location
+         * 
+         * @param checker the checker to add to the game
+         */
+        public void addChecker(Checker checker) {
+            if (!this.board.isOnBoard(checker.location.x, checker.location.y)) {
+                throw new IllegalArgumentException("Location (" + checker.location + ") is not on the board");
+            }
+            this.board.place(this.board.square(checker.location.x, checker.location.y), checker.team, checker.isKing);
+        }
+
+        /**
+         * Provides every checker currently on the board. The checkers are snapshots of
+         * the board, so changing them has no effect on the game
+         * 
+         * @return the checkers ordered from the top left of the board
+         */
+        public List<Checker> getCheckers() {
+            int[] squares = new int[this.board.pieceCount(Team.RED) + this.board.pieceCount(Team.BLACK)];
+            int[] blackSquares = new int[this.board.pieceCount(Team.BLACK)];
+            int redCount = this.board.pieceSquares(Team.RED, squares);
+            int blackCount = this.board.pieceSquares(Team.BLACK, blackSquares);
+            System.arraycopy(blackSquares, 0, squares, redCount, blackCount);
+            Arrays.sort(squares);
+            List<Checker> checkers = new ArrayList<>(squares.length);
+            for (int square : squares) {
+                checkers.add(this.board.checkerAt(square));
+            }
+            return checkers;
         }
 
         public Optional<Checker> getCheckerByLocation(Location checkerLocation) {
-            for (Checker checker : this.checkers) {
-                if (checker.location.equals(checkerLocation)) {
-                    return Optional.of(checker);
+            if (!this.board.isOnBoard(checkerLocation.x, checkerLocation.y)) {
+                return Optional.empty();
+            }
+            return Optional.ofNullable(this.board.checkerAt(this.board.square(checkerLocation.x, checkerLocation.y)));
+        }
+
+        /**
+         * Copies the pieces and completion of this game into a new game. Moves made
+         * before the copy cannot be taken back on the copy
+         * 
+         * @return an independent game in the same position
+         */
+        public Game copy() {
+            Game copy = new Game(this.boardSize);
+            copy.board.copyFrom(this.board);
+            copy.isComplete = this.isComplete;
+            copy.result = this.result;
+            copy.winner = this.winner;
+            copy.noProgressLimit = this.noProgressLimit;
+            copy.rules = this.rules;
+            return copy;
+        }
+
+        /**
+         * Takes a snapshot of the game between two turns. Only the checkers and the
+         * history are copied, so taking one is cheap enough to do while play goes on
+         * 
+         * @param nextTeam the team to move next
+         * @return a snapshot sharing nothing with the game
+         */
+        public Snapshot snapshot(Team nextTeam) {
+            short[] pieces = new short[this.board.pieceCount(Team.RED) + this.board.pieceCount(Team.BLACK)];
+            int[] squares = new int[pieces.length];
+            int count = 0;
+            for (Team team : Team.values()) {
+                int teamCount = this.board.pieceSquares(team, squares);
+                for (int i = 0; i < teamCount; i++) {
+                    pieces[count++] = Snapshot.packPiece(squares[i], team, this.board.isKing(squares[i]));
                 }
             }
-            return Optional.empty();
+            return new Snapshot(this.boardSize, this.rules, this.noProgressLimit, nextTeam, this.result, this.winner,
+                    pieces, Arrays.copyOf(this.undoStack, this.undoSize), Arrays.copyOf(this.turnEnds, this.turns),
+                    Arrays.copyOf(this.turnPositions, this.turns), Arrays.copyOf(this.quietTurns, this.turns));
         }
 
-        public void printBoard() {
-            Map<Location, Checker> locationToCheckerMap = this.getLocationToCheckerMapping();
-            for (int i = 0; i < this.boardSize; i++) {
-                for (int j = 0; j < this.boardSize; j++) {
-                    Location location = new Location(j, i);
-                    System.out.print("|");
-                    if (locationToCheckerMap.containsKey(location)) {
-                        Checker checker = locationToCheckerMap.get(location);
-                        String toPrint;
-                        if (checker.team == Team.RED) {
-                            toPrint = "r";
-                        } else {
-                            toPrint = "b";
-                        }
-                        if (checker.isKing) {
-                            toPrint = toPrint.toUpperCase();
-                        }
-                        System.out.print(toPrint);
-                    } else {
-                        System.out.print(" ");
+        /**
+         * Sets the game to the state held by a snapshot, replacing every checker and
+         * the whole history, so moves made before the snapshot can be taken back and
+         * count towards repetitions
+         * 
+         * @param snapshot a snapshot of a game of the same board size
+         */
+        public void restore(Snapshot snapshot) {
+            if (snapshot.boardSize != this.boardSize) {
+                throw new IllegalArgumentException("A snapshot of a " + snapshot.boardSize
+                        + " square board cannot be restored to a " + this.boardSize + " square board");
+            }
+            int[] squares = new int[this.boardSize * this.boardSize];
+            for (Team team : Team.values()) {
+                int count = this.board.pieceSquares(team, squares);
+                for (int i = 0; i < count; i++) {
+                    this.board.remove(squares[i]);
+                }
+            }
+            for (short piece : snapshot.pieces) {
+                this.board.place(Snapshot.squareOf(piece), Snapshot.teamOf(piece), Snapshot.isKing(piece));
+            }
+            this.rules = snapshot.rules;
+            this.noProgressLimit = snapshot.noProgressLimit;
+            this.isComplete = snapshot.result != null;
+            this.result = snapshot.result;
+            this.winner = snapshot.winner;
+            this.undoSize = snapshot.undo.length;
+            this.undoStack = Arrays.copyOf(snapshot.undo, Math.max(64, this.undoSize));
+            this.turns = snapshot.turnEnds.length;
+            int capacity = Math.max(64, this.turns);
+            this.turnEnds = Arrays.copyOf(snapshot.turnEnds, capacity);
+            this.turnPositions = Arrays.copyOf(snapshot.turnPositions, capacity);
+            this.quietTurns = Arrays.copyOf(snapshot.quietTurns, capacity);
+            this.positions.clear();
+            for (int i = 0; i < this.turns; i++) {
+                this.positions.add(this.turnPositions[i]);
+            }
+            // The board changed without moves, so the cache is rebuilt on its next use
+            this.moveCache = null;
+        }
+
+        /**
+         * Applies a packed move or single capture without validating it. The piece is
+         * crowned if it reaches the far side of the board, and the game completes when
+         * a capture takes the last opposing checker. Every move made can be taken back
+         * with {@link #unmakeMove()}
+         * 
+         * @param move a valid packed move or capture for the current board
+         */
+        public void makeMove(int move) {
+            long before = this.board.hash();
+            int from = BitBoard.moveFrom(move);
+            int to = BitBoard.moveTo(move);
+            int flags = this.isComplete ? WAS_COMPLETE : 0;
+            Team team = this.board.teamAt(from);
+            if (!this.board.isKing(from)) {
+                flags |= MOVED_CHECKER;
+            }
+            if (BitBoard.isCapture(move)) {
+                int captured = BitBoard.moveCaptured(move);
+                if (this.board.isKing(captured)) {
+                    flags |= CAPTURED_KING;
+                }
+                if (this.board.teamAt(captured) == Team.RED) {
+                    flags |= CAPTURED_RED;
+                }
+                this.board.remove(captured);
+            }
+            this.board.relocate(from, to);
+            if (this.board.promoteIfEligible(to)) {
+                flags |= PROMOTED;
+            }
+            if (BitBoard.isCapture(move) && this.board.pieceCount(opponentOf(team)) == 0 && !this.isComplete) {
+                this.isComplete = true;
+                this.result = GameResult.ALL_CAPTURED;
+                this.winner = team;
+            }
+            if (this.undoSize == this.undoStack.length) {
+                this.undoStack = Arrays.copyOf(this.undoStack, this.undoSize * 2);
+            }
+            this.undoStack[this.undoSize++] = move;
+            this.undoStack[this.undoSize++] = flags;
+            if (this.moveCache != null) {
+                this.moveCache.moved(before, from, to, BitBoard.moveCaptured(move));
+            }
+        }
+
+        /**
+         * Takes back the most recent move made, restoring any captured checker, the
+         * moving checker's rank and whether the game was complete
+         */
+        public void unmakeMove() {
+            if (this.undoSize == 0) {
+                throw new IllegalStateException("There are no moves to take back");
+            }
+            long before = this.board.hash();
+            int flags = this.undoStack[--this.undoSize];
+            int move = this.undoStack[--this.undoSize];
+            int from = BitBoard.moveFrom(move);
+            int to = BitBoard.moveTo(move);
+            if ((flags & PROMOTED) != 0) {
+                this.board.demote(to);
+            }
+            this.board.relocate(to, from);
+            if (BitBoard.isCapture(move)) {
+                Team capturedTeam = (flags & CAPTURED_RED) != 0 ? Team.RED : Team.BLACK;
+                this.board.place(BitBoard.moveCaptured(move), capturedTeam, (flags & CAPTURED_KING) != 0);
+            }
+            this.isComplete = (flags & WAS_COMPLETE) != 0;
+            if (!this.isComplete) {
+                this.result = null;
+                this.winner = null;
+            }
+            while (this.turns > 0 && this.turnEnds[this.turns - 1] > movesMade()) {
+                this.positions.remove(this.turnPositions[--this.turns]);
+            }
+            if (this.moveCache != null) {
+                this.moveCache.moved(before, to, from, BitBoard.moveCaptured(move));
+            }
+        }
+
+        /**
+         * Takes back every move made and forgets every turn ended, so the game can be
+         * reused from its starting position. A game that ended before any move was
+         * made, such as a draw by skipped turns, is reopened as well
+         */
+        public void rewind() {
+            while (movesMade() > 0) {
+                unmakeMove();
+            }
+            this.turns = 0;
+            this.positions.clear();
+            this.isComplete = false;
+            this.result = null;
+            this.winner = null;
+        }
+
+        /**
+         * Ends the turn just played, checking if the game is now over. The team to
+         * move loses if it has no move. Otherwise the game is drawn when the position
+         * has arisen for the third time with the same team to move, or when
+         * {@link #noProgressLimit} turns in a row have passed without a capture or a
+         * checker moving. Each check takes constant time: positions are counted in a
+         * hash table and the turns without progress are carried from the turn before
+         * 
+         * @param nextTeam the team to move next
+         */
+        public void endTurn(Team nextTeam) {
+            if (this.isComplete) {
+                return;
+            }
+            int end = movesMade();
+            int quiet = 0;
+            if (this.turns > 0) {
+                quiet = this.quietTurns[this.turns - 1] + 1;
+                for (int i = this.turnEnds[this.turns - 1]; i < end; i++) {
+                    if (BitBoard.isCapture(this.undoStack[2 * i]) || (this.undoStack[2 * i + 1] & MOVED_CHECKER) != 0) {
+                        quiet = 0;
+                    }
+                }
+            }
+            long position = this.board.hash(nextTeam);
+            if (this.turns == this.turnEnds.length) {
+                this.turnEnds = Arrays.copyOf(this.turnEnds, this.turns * 2);
+                this.turnPositions = Arrays.copyOf(this.turnPositions, this.turns * 2);
+                this.quietTurns = Arrays.copyOf(this.quietTurns, this.turns * 2);
+            }
+            this.turnEnds[this.turns] = end;
+            this.turnPositions[this.turns] = position;
+            this.quietTurns[this.turns] = quiet;
+            this.turns++;
+            int seen = this.positions.add(position);
+            boolean hasMoves = this.moveCache != null
+                    ? this.moveCache.moveCount(nextTeam) + this.moveCache.captureCount(nextTeam) > 0
+                    : this.board.hasMoves(nextTeam);
+            if (!hasMoves) {
+                finish(GameResult.NO_MOVES, opponentOf(nextTeam));
+            } else if (seen >= 3) {
+                finish(GameResult.REPETITION, null);
+            } else if (this.noProgressLimit > 0 && quiet >= this.noProgressLimit) {
+                finish(GameResult.NO_PROGRESS, null);
+            }
+        }
+
+        private void finish(GameResult result, Team winner) {
+            this.isComplete = true;
+            this.result = result;
+            this.winner = winner;
+        }
+
+        /**
+         * Counts how often each position has arisen, by hash, in an open addressed
+         * table. Positions are removed in the reverse order they were added, so a
+         * position whose count falls to zero keeps its slot rather than breaking the
+         * probe sequences of others
+         */
+        private static final class PositionCounts {
+            private long[] keys = new long[64];
+            private int[] counts = new int[64];
+            private int used;
+
+            int add(long key) {
+                int slot = slotOf(key);
+                if (this.counts[slot] == 0 && this.keys[slot] != key) {
+                    if (++this.used * 2 > this.keys.length) {
+                        grow();
+                        slot = slotOf(key);
+                    }
+                    this.keys[slot] = key;
+                }
+                return ++this.counts[slot];
+            }
+
+            void remove(long key) {
+                this.counts[slotOf(key)]--;
+            }
+
+            void clear() {
+                if (this.used > 0) {
+                    Arrays.fill(this.keys, 0L);
+                    Arrays.fill(this.counts, 0);
+                    this.used = 0;
+                }
+            }
+
+            /*
+             * Finds the slot holding a key, or the empty slot where it belongs. A slot is
+             * empty when it has never held a key
+             */
+            private int slotOf(long key) {
+                int mask = this.keys.length - 1;
+                int slot = (int) (key ^ (key >>> 32)) & mask;
+                while ((this.counts[slot] != 0 || this.keys[slot] != 0L) && this.keys[slot] != key) {
+                    slot = (slot + 1) & mask;
+                }
+                return slot;
+            }
+
+            /*
+             * Rebuilds the table without the positions no longer counted, doubling it
+             * only if those still counted would fill more than a quarter of it
+             */
+            private void grow() {
+                long[] oldKeys = this.keys;
+                int[] oldCounts = this.counts;
+                int live = 0;
+                for (int count : oldCounts) {
+                    if (count > 0) {
+                        live++;
+                    }
+                }
+                int capacity = live * 4 > oldKeys.length ? oldKeys.length * 2 : oldKeys.length;
+                this.keys = new long[capacity];
+                this.counts = new int[capacity];
+                this.used = 1;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldCounts[i] > 0) {
+                        int slot = slotOf(oldKeys[i]);
+                        this.keys[slot] = oldKeys[i];
+                        this.counts[slot] = oldCounts[i];
+                        this.used++;
                     }
-                    System.out.print("|");
                 }
-                System.out.println();
             }
         }
 
+        /**
+         * Gets the moves available on the board, creating the cache on first use
+         * 
+         * @return the cache kept up to date with this game's moves
+         */
+        public MoveCache moveCache() {
+            if (this.moveCache == null) {
+                this.moveCache = new MoveCache(this.board);
+            }
+            return this.moveCache;
+        }
+
+        /**
+         * Looks up the exact result of the game in the endgame database
+         * 
+         * @param team the team to move
+         * @return the plies to a win for the team (positive) or to its loss (negative),
+         *         {@link EndgameDatabase#DRAW}, or {@link EndgameDatabase#UNKNOWN} if no
+         *         database covering the position is loaded
+         */
+        public int probeEndgame(Team team) {
+            return this.endgames == null ? EndgameDatabase.UNKNOWN : this.endgames.probe(this.board, team);
+        }
+
+        /**
+         * Gets the number of moves made that can still be taken back
+         * 
+         * @return the depth of the undo stack
+         */
+        public int movesMade() {
+            return this.undoSize / 2;
+        }
+
+        /**
+         * Gets a move made earlier in the game
+         * 
+         * @param index the position of the move, starting from 0 for the first move
+         * @return the packed move or capture
+         */
+        public int getMove(int index) {
+            return this.undoStack[2 * index];
+        }
+
+        /**
+         * Finds every sequence of captures that the checker at a location could make.
+         * The returned tree is shared by the game and is overwritten by the next search
+         * 
+         * @param checkerLocation the location of the capturing checker
+         * @return the tree of capture sequences, empty if the location holds no checker
+         */
+        public JumpTree findCaptureChains(Location checkerLocation) {
+            if (this.board.isOnBoard(checkerLocation.x, checkerLocation.y)) {
+                this.jumpTree.generate(this.board, this.board.square(checkerLocation.x, checkerLocation.y),
+                        this.rules);
+            } else {
+                this.jumpTree.clear();
+            }
+            return this.jumpTree;
+        }
+
+        /**
+         * Prints the board a row at a time with a single write
+         */
+        public void printBoard() {
+            new Renderer(System.out, Renderer.Mode.PLAIN).board(this, null).flush();
+        }
+
         /*
          * Maps all of the locations containing a checker on the game board to their
          * corresponding checker
          */
         public Map<Location, Checker> getLocationToCheckerMapping() {
-            Map<Location, Checker> locationToCheckerMap = new HashMap<>();
-            for (Checker checker : this.checkers) {
+            List<Checker> checkers = this.getCheckers();
+            // Sized so that the map never has to grow while it is filled
+            Map<Location, Checker> locationToCheckerMap = new HashMap<>(checkers.size() * 4 / 3 + 1);
+            for (Checker checker : checkers) {
                 locationToCheckerMap.put(checker.location, checker);
             }
             return locationToCheckerMap;
         }
     }
+
+    /**
+     * Holds the pieces of a game as packed bit masks, one bit per square. Square
+     * indexes run across each row from the top left of the board, so the square at
+     * x & y is {@code y * boardSize + x}. Moves and captures are found for every
+     * piece at once by shifting the masks along each diagonal.
+     * Boards wider than {@link #MAX_PACKED_SIZE} do not fit in a mask, so they hold
+     * the kind of piece on every square along with a list of the squares each team
+     * occupies, and moves are found by walking the lists. The work done then grows
+     * with the number of pieces rather than the area of the board.
+     */
+    public static class BitBoard {
+        /*
+         * The largest board whose squares all fit within a single mask
+         */
+        public static final int MAX_PACKED_SIZE = 8;
+
+        /*
+         * The largest board whose squares fit in the fields of a packed move
+         */
+        public static final int MAX_BOARD_SIZE = 32;
+
+        /*
+         * The diagonals a checker can travel along, in the order moves are reported
+         */
+        public static final int UP_RIGHT = 0;
+        public static final int UP_LEFT = 1;
+        public static final int DOWN_RIGHT = 2;
+        public static final int DOWN_LEFT = 3;
+        public static final int DIRECTIONS = 4;
+
+        /*
+         * Moves are packed into an int: the origin square in the lowest 10 bits, the
+         * destination in the next 10, the square of the captured checker in the 10
+         * after that, and a flag marking captures in bit 30
+         */
+        private static final int SQUARE_BITS = 10;
+        private static final int SQUARE_MASK = (1 << SQUARE_BITS) - 1;
+        private static final int CAPTURE_FLAG = 1 << 30;
+
+        private static final int[] X_STEPS = { 1, -1, 1, -1 };
+        private static final int[] Y_STEPS = { -1, -1, 1, 1 };
+
+        /*
+         * The length and width of the board
+         */
+        public final int boardSize;
+
+        /*
+         * The squares occupied by red checkers, black checkers and kings of either team.
+         * These are read directly for speed, but should only be changed through the
+         * methods below so the position key stays in step. Boards wider than
+         * MAX_PACKED_SIZE leave them empty, and must not be asked for masks
+         */
+        public long red;
+        public long black;
+        public long kings;
+
+        /*
+         * The Zobrist key of the pieces on the board, updated with every change
+         */
+        private long hash;
+
+        /*
+         * On boards too wide for the masks, one more than the kind of piece on each
+         * square, or 0 for an empty square. Null on packed boards
+         */
+        private final byte[] cells;
+
+        /*
+         * On boards too wide for the masks, the squares held by each team in no
+         * particular order, indexed by team ordinal, the number of squares in each
+         * list, and the position of every occupied square within its team's list
+         */
+        private final int[][] pieceLists;
+        private final int[] pieceCounts;
+        private final int[] listIndexes;
+
+        /*
+         * The square one step along each diagonal from every square, at index
+         * {@code square * DIRECTIONS + direction}, or -1 where the step leaves the board
+         */
+        private final int[] neighbours;
+
+        /*
+         * A random key for every kind of piece on every square, where the kinds are red
+         * checkers, red kings, black checkers and black kings. Seeded so keys match
+         * between runs
+         */
+        private static final long[] PIECE_KEYS = new long[4 << SQUARE_BITS];
+
+        /*
+         * Mixed into a position key when black is the team to move
+         */
+        public static final long BLACK_TO_MOVE_KEY;
+
+        static {
+            SplittableRandom random = new SplittableRandom(0x5EEDC0FFEEL);
+            // The first 64 squares draw their keys first so that packed boards keep the
+            // keys stored in opening books built before wider boards existed
+            for (int kind = 0; kind < 4; kind++) {
+                for (int square = 0; square < 64; square++) {
+                    PIECE_KEYS[(kind << SQUARE_BITS) | square] = random.nextLong();
+                }
+            }
+            BLACK_TO_MOVE_KEY = random.nextLong();
+            for (int kind = 0; kind < 4; kind++) {
+                for (int square = 64; square < 1 << SQUARE_BITS; square++) {
+                    PIECE_KEYS[(kind << SQUARE_BITS) | square] = random.nextLong();
+                }
+            }
+        }
+
+        /*
+         * Every square on the board
+         */
+        private final long boardMask;
+
+        /*
+         * The change in square index for a single step along each diagonal
+         */
+        private final int[] deltas = new int[DIRECTIONS];
+
+        /*
+         * For each diagonal, the squares that can step or jump along it without leaving
+         * the board
+         */
+        private final long[] stepSources = new long[DIRECTIONS];
+        private final long[] jumpSources = new long[DIRECTIONS];
+
+        /*
+         * The rows on which each team's checkers become kings
+         */
+        private final long redKingRow;
+        private final long blackKingRow;
+
+        public BitBoard(int boardSize) {
+            if (boardSize < 1 || boardSize > MAX_BOARD_SIZE) {
+                throw new IllegalArgumentException(
+                        "Board size must be between 1 and " + MAX_BOARD_SIZE + " but was " + boardSize);
+            }
+            this.boardSize = boardSize;
+            this.neighbours = new int[DIRECTIONS * boardSize * boardSize];
+            for (int square = 0; square < boardSize * boardSize; square++) {
+                for (int direction = 0; direction < DIRECTIONS; direction++) {
+                    int x = square % boardSize + X_STEPS[direction];
+                    int y = square / boardSize + Y_STEPS[direction];
+                    this.neighbours[square * DIRECTIONS + direction] = isOnBoard(x, y) ? square(x, y) : -1;
+                }
+            }
+            for (int direction = 0; direction < DIRECTIONS; direction++) {
+                this.deltas[direction] = Y_STEPS[direction] * boardSize + X_STEPS[direction];
+            }
+            if (boardSize > MAX_PACKED_SIZE) {
+                this.cells = new byte[boardSize * boardSize];
+                this.pieceLists = new int[2][boardSize * boardSize];
+                this.pieceCounts = new int[2];
+                this.listIndexes = new int[boardSize * boardSize];
+                this.boardMask = 0L;
+                this.redKingRow = 0L;
+                this.blackKingRow = 0L;
+                return;
+            }
+            this.cells = null;
+            this.pieceLists = null;
+            this.pieceCounts = null;
+            this.listIndexes = null;
+            long allSquares = 0L;
+            long topRow = 0L;
+            long bottomRow = 0L;
+            for (int y = 0; y < boardSize; y++) {
+                for (int x = 0; x < boardSize; x++) {
+                    long bit = 1L << square(x, y);
+                    allSquares |= bit;
+                    if (y == 0) {
+                        topRow |= bit;
+                    }
+                    if (y == boardSize - 1) {
+                        bottomRow |= bit;
+                    }
+                    for (int direction = 0; direction < DIRECTIONS; direction++) {
+                        if (isOnBoard(x + X_STEPS[direction], y + Y_STEPS[direction])) {
+                            this.stepSources[direction] |= bit;
+                        }
+                        if (isOnBoard(x + 2 * X_STEPS[direction], y + 2 * Y_STEPS[direction])) {
+                            this.jumpSources[direction] |= bit;
+                        }
+                    }
+                }
+            }
+            this.boardMask = allSquares;
+            this.redKingRow = topRow;
+            this.blackKingRow = bottomRow;
+        }
+
+        /**
+         * Replaces the pieces on this board with those on another board of the same size
+         * 
+         * @param other the board to copy
+         */
+        public void copyFrom(BitBoard other) {
+            if (other.boardSize != this.boardSize) {
+                throw new IllegalArgumentException("Cannot copy a board of a different size");
+            }
+            this.red = other.red;
+            this.black = other.black;
+            this.kings = other.kings;
+            this.hash = other.hash;
+            if (this.cells != null) {
+                System.arraycopy(other.cells, 0, this.cells, 0, this.cells.length);
+                for (int team = 0; team < 2; team++) {
+                    this.pieceCounts[team] = other.pieceCounts[team];
+                    System.arraycopy(other.pieceLists[team], 0, this.pieceLists[team], 0, other.pieceCounts[team]);
+                }
+                System.arraycopy(other.listIndexes, 0, this.listIndexes, 0, this.listIndexes.length);
+            }
+        }
+
+        /**
+         * Checks if the board keeps its pieces in masks, which only boards up to
+         * {@link #MAX_PACKED_SIZE} wide do
+         * 
+         * @return true if the mask fields and methods describe the board
+         */
+        public boolean isPacked() {
+            return this.cells == null;
+        }
+
+        public boolean isOnBoard(int x, int y) {
+            return x >= 0 && x < this.boardSize && y >= 0 && y < this.boardSize;
+        }
+
+        public int square(int x, int y) {
+            return y * this.boardSize + x;
+        }
+
+        public Location locationOf(int square) {
+            return new Location(square % this.boardSize, square / this.boardSize);
+        }
+
+        /**
+         * Gets the change in square index for a single step along a diagonal
+         * 
+         * @param direction the diagonal to step along
+         * @return the amount to add to a square index to take the step
+         */
+        public int delta(int direction) {
+            return this.deltas[direction];
+        }
+
+        /**
+         * Gets the square one step along a diagonal
+         * 
+         * @param square    the square to step from
+         * @param direction the diagonal to step along
+         * @return the neighbouring square, or -1 if the step leaves the board
+         */
+        public int neighbour(int square, int direction) {
+            return this.neighbours[square * DIRECTIONS + direction];
+        }
+
+        public long occupied() {
+            return this.red | this.black;
+        }
+
+        public long empty() {
+            return ~(this.red | this.black) & this.boardMask;
+        }
+
+        public long pieces(Team team) {
+            return team == Team.RED ? this.red : this.black;
+        }
+
+        public int pieceCount(Team team) {
+            if (this.cells != null) {
+                return this.pieceCounts[team.ordinal()];
+            }
+            return Long.bitCount(pieces(team));
+        }
+
+        /**
+         * Writes the square of every piece belonging to a team. Packed boards write
+         * them from the top left, wider boards in the order of their piece lists
+         * 
+         * @param team    the team to list
+         * @param squares the buffer to fill, holding at least {@link #pieceCount(Team)}
+         * @return the number of squares written
+         */
+        public int pieceSquares(Team team, int[] squares) {
+            if (this.cells != null) {
+                int count = this.pieceCounts[team.ordinal()];
+                System.arraycopy(this.pieceLists[team.ordinal()], 0, squares, 0, count);
+                return count;
+            }
+            int count = 0;
+            for (long pieces = pieces(team); pieces != 0L; pieces &= pieces - 1) {
+                squares[count++] = Long.numberOfTrailingZeros(pieces);
+            }
+            return count;
+        }
+
+        public boolean isOccupied(int square) {
+            if (this.cells != null) {
+                return this.cells[square] != 0;
+            }
+            return ((this.red | this.black) & (1L << square)) != 0L;
+        }
+
+        public boolean isKing(int square) {
+            if (this.cells != null) {
+                return this.cells[square] != 0 && (this.cells[square] - 1 & 1) != 0;
+            }
+            return (this.kings & (1L << square)) != 0L;
+        }
+
+        /**
+         * Gets the team of the checker on the given square
+         * 
+         * @param square the square to inspect
+         * @return the team occupying the square, or null if it is empty
+         */
+        public Team teamAt(int square) {
+            if (this.cells != null) {
+                return this.cells[square] == 0 ? null : this.cells[square] <= 2 ? Team.RED : Team.BLACK;
+            }
+            long bit = 1L << square;
+            if ((this.red & bit) != 0L) {
+                return Team.RED;
+            }
+            if ((this.black & bit) != 0L) {
+                return Team.BLACK;
+            }
+            return null;
+        }
+
+        /**
+         * Builds a checker describing the piece on the given square
+         * 
+         * @param square the square to inspect
+         * @return a snapshot of the checker, or null if the square is empty
+         */
+        public Checker checkerAt(int square) {
+            Team team = teamAt(square);
+            if (team == null) {
+                return null;
+            }
+            Checker checker = new Checker(locationOf(square), team);
+            checker.isKing = isKing(square);
+            return checker;
+        }
+
+        /**
+         * Gets the Zobrist key of the pieces on the board. Equal boards always share a
+         * key, and different boards share one only by rare chance
+         * 
+         * @return the 64 bit key
+         */
+        public long hash() {
+            return this.hash;
+        }
+
+        /**
+         * Gets the key identifying the board together with the team to move
+         * 
+         * @param team the team to move next
+         * @return the 64 bit key
+         */
+        public long hash(Team team) {
+            return team == Team.BLACK ? this.hash ^ BLACK_TO_MOVE_KEY : this.hash;
+        }
+
+        /*
+         * Gets the kind of piece on an occupied square, as an index into the piece keys
+         */
+        private int kindAt(int square) {
+            if (this.cells != null) {
+                return this.cells[square] - 1;
+            }
+            long bit = 1L << square;
+            return ((this.black & bit) != 0L ? 2 : 0) + ((this.kings & bit) != 0L ? 1 : 0);
+        }
+
+        private static long pieceKey(int kind, int square) {
+            return PIECE_KEYS[(kind << SQUARE_BITS) | square];
+        }
+
+        public void place(int square, Team team, boolean isKing) {
+            remove(square);
+            if (this.cells != null) {
+                int kind = (team == Team.RED ? 0 : 2) + (isKing ? 1 : 0);
+                int[] list = this.pieceLists[team.ordinal()];
+                this.cells[square] = (byte) (kind + 1);
+                this.listIndexes[square] = this.pieceCounts[team.ordinal()];
+                list[this.pieceCounts[team.ordinal()]++] = square;
+                this.hash ^= pieceKey(kind, square);
+                return;
+            }
+            long bit = 1L << square;
+            if (team == Team.RED) {
+                this.red |= bit;
+            } else {
+                this.black |= bit;
+            }
+            if (isKing) {
+                this.kings |= bit;
+            }
+            this.hash ^= pieceKey(kindAt(square), square);
+        }
+
+        public void remove(int square) {
+            if (isOccupied(square)) {
+                this.hash ^= pieceKey(kindAt(square), square);
+            }
+            if (this.cells != null) {
+                if (this.cells[square] != 0) {
+                    // Fill the gap in the team's list with its last square
+                    int team = this.cells[square] <= 2 ? 0 : 1;
+                    int last = this.pieceLists[team][--this.pieceCounts[team]];
+                    this.pieceLists[team][this.listIndexes[square]] = last;
+                    this.listIndexes[last] = this.listIndexes[square];
+                    this.cells[square] = 0;
+                }
+                return;
+            }
+            long clear = ~(1L << square);
+            this.red &= clear;
+            this.black &= clear;
+            this.kings &= clear;
+        }
+
+        /**
+         * Moves the piece on one square to another, keeping its team and king status
+         * 
+         * @param from the occupied square to move from
+         * @param to   the empty square to move to
+         */
+        public void relocate(int from, int to) {
+            int kind = kindAt(from);
+            this.hash ^= pieceKey(kind, from) ^ pieceKey(kind, to);
+            if (this.cells != null) {
+                this.cells[to] = this.cells[from];
+                this.cells[from] = 0;
+                this.listIndexes[to] = this.listIndexes[from];
+                this.pieceLists[kind >>> 1][this.listIndexes[to]] = to;
+                return;
+            }
+            long change = (1L << from) | (1L << to);
+            if ((this.red & (1L << from)) != 0L) {
+                this.red ^= change;
+            } else {
+                this.black ^= change;
+            }
+            if ((this.kings & (1L << from)) != 0L) {
+                this.kings ^= change;
+            }
+        }
+
+        /**
+         * Crowns the checker on the given square if it has reached the far side of the
+         * board for its team
+         * 
+         * @param square the square holding the checker
+         * @return true if the checker became a king
+         */
+        public boolean promoteIfEligible(int square) {
+            if (this.cells != null) {
+                int kind = kindAt(square);
+                int area = this.boardSize * this.boardSize;
+                boolean eligible = kind == 0 && square < this.boardSize
+                        || kind == 2 && square >= area - this.boardSize;
+                if (eligible) {
+                    this.cells[square]++;
+                    this.hash ^= pieceKey(kind, square) ^ pieceKey(kind + 1, square);
+                }
+                return eligible;
+            }
+            long bit = 1L << square;
+            long eligibleSquares = (this.red & this.redKingRow) | (this.black & this.blackKingRow);
+            boolean eligible = (eligibleSquares & ~this.kings & bit) != 0L;
+            if (eligible) {
+                int man = kindAt(square);
+                this.kings |= bit;
+                this.hash ^= pieceKey(man, square) ^ pieceKey(man + 1, square);
+            }
+            return eligible;
+        }
+
+        public void demote(int square) {
+            if (isKing(square)) {
+                int king = kindAt(square);
+                if (this.cells != null) {
+                    this.cells[square]--;
+                } else {
+                    this.kings &= ~(1L << square);
+                }
+                this.hash ^= pieceKey(king, square) ^ pieceKey(king - 1, square);
+            }
+        }
+
+        /**
+         * Gets the square between the start and end of a capture
+         * 
+         * @param from where the capture begins
+         * @param to   where the capture ends
+         * @return the square holding the checker that would be removed
+         */
+        public int middleSquare(int from, int to) {
+            return (from + to) >>> 1;
+        }
+
+        /**
+         * Finds the pieces of a team that may travel along the given diagonal. Kings
+         * travel in every direction, red checkers up the board and black checkers down
+         * 
+         * @param team      the team to find pieces for
+         * @param direction the diagonal to travel along
+         * @return the mask of squares holding pieces that may use the diagonal
+         */
+        public long movers(Team team, int direction) {
+            boolean forward = team == Team.RED ? direction == UP_RIGHT || direction == UP_LEFT
+                    : direction == DOWN_RIGHT || direction == DOWN_LEFT;
+            long pieces = pieces(team);
+            return forward ? pieces : pieces & this.kings;
+        }
+
+        /**
+         * Checks if a team has any move or capture. Packed boards answer with a few
+         * mask operations, while wider boards stop at the first piece that can move
+         * 
+         * @param team the team to check
+         * @return set true if the team can move
+         */
+        public boolean hasMoves(Team team) {
+            if (this.cells == null) {
+                for (int direction = 0; direction < DIRECTIONS; direction++) {
+                    if (moveTargets(team, direction) != 0L) {
+                        return true;
+                    }
+                }
+                for (int direction = 0; direction < DIRECTIONS; direction++) {
+                    if (captureTargets(team, direction) != 0L) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return findListedMove(team, false) || findListedMove(team, true);
+        }
+
+        /**
+         * Counts the moves and captures a team would have in a position given as masks,
+         * using this board only for its shape. The count matches what generateMoves
+         * lists for the same position
+         * 
+         * @param own       the squares held by the team
+         * @param opponents the squares held by the other team
+         * @param kings     the squares held by kings of either team
+         * @param team      the team to count for
+         * @return the number of moves plus the number of captures
+         */
+        public int countMoves(long own, long opponents, long kings, Team team) {
+            long empty = this.boardMask & ~(own | opponents);
+            int count = 0;
+            for (int direction = 0; direction < DIRECTIONS; direction++) {
+                boolean forward = team == Team.RED ? direction < DOWN_RIGHT : direction >= DOWN_RIGHT;
+                long movers = forward ? own : own & kings;
+                int delta = this.deltas[direction];
+                count += Long.bitCount(shift(movers & this.stepSources[direction], delta) & empty);
+                long jumped = shift(movers & this.jumpSources[direction], delta) & opponents;
+                count += Long.bitCount(shift(jumped, delta) & empty);
+            }
+            return count;
+        }
+
+        /**
+         * Checks if a team has any capture, stopping at the first one found rather
+         * than generating them all
+         * 
+         * @param team the team to check
+         * @return set true if the team can capture
+         */
+        public boolean hasCapture(Team team) {
+            if (this.cells == null) {
+                for (int direction = 0; direction < DIRECTIONS; direction++) {
+                    if (captureTargets(team, direction) != 0L) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return findListedMove(team, true);
+        }
+
+        /*
+         * Looks for one move or capture on a board too wide for the masks, stepping
+         * each piece in the team's list like generateListedMoves
+         */
+        private boolean findListedMove(Team team, boolean isCapture) {
+            byte[] cells = this.cells;
+            int[] neighbours = this.neighbours;
+            int[] list = this.pieceLists[team.ordinal()];
+            int pieceCount = this.pieceCounts[team.ordinal()];
+            int opponentBase = team == Team.RED ? 3 : 1;
+            for (int i = 0; i < pieceCount; i++) {
+                int from = list[i];
+                boolean isChecker = (cells[from] & 1) != 0;
+                for (int direction = 0; direction < DIRECTIONS; direction++) {
+                    boolean forward = team == Team.RED ? direction < DOWN_RIGHT : direction >= DOWN_RIGHT;
+                    int to = neighbours[from * DIRECTIONS + direction];
+                    if ((!forward && isChecker) || to < 0) {
+                        continue;
+                    }
+                    if (!isCapture) {
+                        if (cells[to] == 0) {
+                            return true;
+                        }
+                    } else if ((cells[to] - opponentBase) >>> 1 == 0) {
+                        int landing = neighbours[to * DIRECTIONS + direction];
+                        if (landing >= 0 && cells[landing] == 0) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Finds every empty square a team can move to with a single step along a
+         * diagonal
+         * 
+         * @param team      the team moving
+         * @param direction the diagonal to step along
+         * @return the mask of destination squares, each one step from its origin
+         */
+        public long moveTargets(Team team, int direction) {
+            long sources = movers(team, direction) & this.stepSources[direction];
+            return shift(sources, this.deltas[direction]) & empty();
+        }
+
+        /**
+         * Finds every empty square a team can land on by jumping an opposing piece
+         * along a diagonal
+         * 
+         * @param team      the team capturing
+         * @param direction the diagonal to jump along
+         * @return the mask of landing squares, each two steps from its origin
+         */
+        public long captureTargets(Team team, int direction) {
+            return jumpTargets(movers(team, direction), team, direction);
+        }
+
+        /**
+         * Finds every empty square the piece on a square can land on by jumping an
+         * opposing piece along any diagonal
+         * 
+         * @param square the square holding the capturing piece
+         * @return the mask of landing squares, or 0 if the square is empty
+         */
+        public long captureTargetsFrom(int square) {
+            Team team = teamAt(square);
+            if (team == null) {
+                return 0L;
+            }
+            long bit = 1L << square;
+            long targets = 0L;
+            for (int direction = 0; direction < DIRECTIONS; direction++) {
+                targets |= jumpTargets(movers(team, direction) & bit, team, direction);
+            }
+            return targets;
+        }
+
+        /**
+         * Finds where the piece on a square lands by stepping along a diagonal
+         * 
+         * @param from      the square holding the moving piece
+         * @param direction the diagonal to step along
+         * @return the empty square stepped to, or -1 if the piece cannot move that way
+         */
+        public int stepTarget(int from, int direction) {
+            if (!isOccupied(from) || !canTravel(kindAt(from), direction)) {
+                return -1;
+            }
+            int to = this.neighbours[from * DIRECTIONS + direction];
+            return to < 0 || isOccupied(to) ? -1 : to;
+        }
+
+        /**
+         * Finds where the piece on a square lands by jumping an opposing piece along a
+         * diagonal
+         * 
+         * @param from      the square holding the capturing piece
+         * @param direction the diagonal to jump along
+         * @return the landing square, or -1 if the piece cannot capture that way
+         */
+        public int jumpTarget(int from, int direction) {
+            if (!isOccupied(from) || !canTravel(kindAt(from), direction)) {
+                return -1;
+            }
+            int middle = this.neighbours[from * DIRECTIONS + direction];
+            if (middle < 0 || !isOccupied(middle) || kindAt(middle) >>> 1 == kindAt(from) >>> 1) {
+                return -1;
+            }
+            int to = this.neighbours[middle * DIRECTIONS + direction];
+            return to < 0 || isOccupied(to) ? -1 : to;
+        }
+
+        /*
+         * Checks if a kind of piece may travel along a diagonal. Kings travel in every
+         * direction, red checkers up the board and black checkers down
+         */
+        private static boolean canTravel(int kind, int direction) {
+            return (kind & 1) != 0 || (kind == 0) == (direction < DOWN_RIGHT);
+        }
+
+        private long jumpTargets(long pieces, Team team, int direction) {
+            int delta = this.deltas[direction];
+            long sources = pieces & this.jumpSources[direction];
+            long opponents = team == Team.RED ? this.black : this.red;
+            long jumped = shift(sources, delta) & opponents;
+            return shift(jumped, delta) & empty();
+        }
+
+        /**
+         * Allocates a buffer large enough to hold every move or capture available to a
+         * team on this board
+         * 
+         * @return an empty move buffer
+         */
+        public int[] newMoveBuffer() {
+            return new int[maxMoves()];
+        }
+
+        /**
+         * Gets the most moves or captures a team could ever have at once, which is one
+         * per diagonal for every square
+         * 
+         * @return the size a move buffer must be to hold a full generation
+         */
+        public int maxMoves() {
+            return DIRECTIONS * this.boardSize * this.boardSize;
+        }
+
+        /**
+         * Writes every valid move or capture for a team into the given buffer as packed
+         * ints. Moves are grouped by diagonal, in the order up right, up left, down
+         * right, down left, and by square within each diagonal. Nothing is allocated, so
+         * the buffer can be reused between calls
+         * 
+         * @param team      the team to generate moves for
+         * @param isCapture set true to generate captures rather than moves
+         * @param moves     the buffer to fill, holding at least {@link #maxMoves()}
+         * @return the number of moves written to the start of the buffer
+         */
+        public int generateMoves(Team team, boolean isCapture, int[] moves) {
+            if (this.cells != null) {
+                return generateListedMoves(team, isCapture, moves);
+            }
+            int count = 0;
+            for (int direction = 0; direction < DIRECTIONS; direction++) {
+                int delta = this.deltas[direction];
+                long targets = isCapture ? captureTargets(team, direction) : moveTargets(team, direction);
+                while (targets != 0L) {
+                    int to = Long.numberOfTrailingZeros(targets);
+                    targets &= targets - 1;
+                    moves[count++] = isCapture ? encodeCapture(to - 2 * delta, to, to - delta)
+                            : encodeMove(to - delta, to);
+                }
+            }
+            return count;
+        }
+
+        /*
+         * Generates moves on a board too wide for the masks by stepping each piece in
+         * the team's list, grouped by diagonal like the packed generation but in list
+         * order within each diagonal
+         */
+        private int generateListedMoves(Team team, boolean isCapture, int[] moves) {
+            byte[] cells = this.cells;
+            int[] neighbours = this.neighbours;
+            int[] list = this.pieceLists[team.ordinal()];
+            int pieceCount = this.pieceCounts[team.ordinal()];
+            // Opposing pieces hold cell values 3 and 4 for red, 1 and 2 for black
+            int opponentBase = team == Team.RED ? 3 : 1;
+            int count = 0;
+            for (int direction = 0; direction < DIRECTIONS; direction++) {
+                boolean forward = team == Team.RED ? direction < DOWN_RIGHT : direction >= DOWN_RIGHT;
+                for (int i = 0; i < pieceCount; i++) {
+                    int from = list[i];
+                    // Checkers hold the odd cell values and only travel forwards
+                    if (!forward && (cells[from] & 1) != 0) {
+                        continue;
+                    }
+                    int to = neighbours[from * DIRECTIONS + direction];
+                    if (to < 0) {
+                        continue;
+                    }
+                    if (!isCapture) {
+                        if (cells[to] == 0) {
+                            moves[count++] = encodeMove(from, to);
+                        }
+                    } else if ((cells[to] - opponentBase) >>> 1 == 0) {
+                        int landing = neighbours[to * DIRECTIONS + direction];
+                        if (landing >= 0 && cells[landing] == 0) {
+                            moves[count++] = encodeCapture(from, landing, to);
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+
+        public static int encodeMove(int from, int to) {
+            return from | (to << SQUARE_BITS);
+        }
+
+        public static int encodeCapture(int from, int to, int captured) {
+            return from | (to << SQUARE_BITS) | (captured << (2 * SQUARE_BITS)) | CAPTURE_FLAG;
+        }
+
+        public static int moveFrom(int move) {
+            return move & SQUARE_MASK;
+        }
+
+        public static int moveTo(int move) {
+            return (move >>> SQUARE_BITS) & SQUARE_MASK;
+        }
+
+        /**
+         * Gets the square of the checker a packed move captures
+         * 
+         * @param move the packed move
+         * @return the captured square, or -1 if the move is not a capture
+         */
+        public static int moveCaptured(int move) {
+            return isCapture(move) ? (move >>> (2 * SQUARE_BITS)) & SQUARE_MASK : -1;
+        }
+
+        public static boolean isCapture(int move) {
+            return (move & CAPTURE_FLAG) != 0;
+        }
+
+        /**
+         * Checks if the piece on a square may step to another square
+         * 
+         * @param from the square holding the piece
+         * @param to   the proposed destination
+         * @return true if the move is valid
+         */
+        public boolean isValidMove(int from, int to) {
+            Team team = teamAt(from);
+            if (team == null) {
+                return false;
+            }
+            if (this.cells != null) {
+                for (int direction = 0; direction < DIRECTIONS; direction++) {
+                    if (this.neighbours[from * DIRECTIONS + direction] == to && this.cells[to] == 0
+                            && canTravel(kindAt(from), direction)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            long toBit = 1L << to;
+            for (int direction = 0; direction < DIRECTIONS; direction++) {
+                if (from + this.deltas[direction] == to && (moveTargets(team, direction) & toBit) != 0L) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Checks if the piece on a square may capture by jumping to another square
+         * 
+         * @param from the square holding the piece
+         * @param to   the proposed landing square
+         * @return true if the capture is valid
+         */
+        public boolean isValidCapture(int from, int to) {
+            Team team = teamAt(from);
+            if (team == null) {
+                return false;
+            }
+            if (this.cells != null) {
+                for (int direction = 0; direction < DIRECTIONS; direction++) {
+                    if (jumpTarget(from, direction) == to) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            long toBit = 1L << to;
+            for (int direction = 0; direction < DIRECTIONS; direction++) {
+                if (from + 2 * this.deltas[direction] == to && (captureTargets(team, direction) & toBit) != 0L) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static long shift(long mask, int delta) {
+            return delta > 0 ? mask << delta : mask >>> -delta;
+        }
+    }
+
+    /**
+     * Every sequence of captures available to a single checker, held as a tree of
+     * packed captures. The root stands for the checker's starting square, each other
+     * node is one jump, and the path from the root to any node is a valid sequence of
+     * captures. Storage is kept in arrays that are reused between searches.
+     */
+    public static class JumpTree {
+        /*
+         * The node standing for the capturing checker before it has jumped
+         */
+        public static final int ROOT = 0;
+
+        /*
+         * Marks a missing node
+         */
+        public static final int NONE = -1;
+
+        /*
+         * The diagonals tried from each square, ordered by the index of the landing
+         * square so that children are found from the top left of the board
+         */
+        private static final int[] SEARCH_ORDER = { BitBoard.UP_LEFT, BitBoard.UP_RIGHT, BitBoard.DOWN_LEFT,
+                BitBoard.DOWN_RIGHT };
+
+        private int[] hops = new int[16];
+        private int[] parents = new int[16];
+        private int[] firstChildren = new int[16];
+        private int[] nextSiblings = new int[16];
+        private int size;
+
+        /**
+         * Replaces the tree with every capture sequence available to the piece on a
+         * square. Captures are applied to the board while searching and undone
+         * afterwards, so the board is unchanged once this returns
+         * 
+         * @param board  the board to search
+         * @param origin the square holding the capturing piece
+         */
+        public void generate(BitBoard board, int origin) {
+            generate(board, origin, Rules.CASUAL);
+        }
+
+        /**
+         * Replaces the tree with every capture sequence available to the piece on a
+         * square under the given rules. Under standard rules a checker crowned part
+         * way through a sequence stops there
+         * 
+         * @param board  the board to search
+         * @param origin the square holding the capturing piece
+         * @param rules  the rules the sequences follow
+         */
+        public void generate(BitBoard board, int origin, Rules rules) {
+            clear();
+            if (board.isOccupied(origin)) {
+                search(board, origin, ROOT, rules == Rules.STANDARD);
+            }
+        }
+
+        /**
+         * Empties the tree, leaving only the root
+         */
+        public void clear() {
+            this.size = 0;
+            addNode(0, NONE);
+        }
+
+        private void search(BitBoard board, int from, int parent, boolean stopWhenCrowned) {
+            for (int direction : SEARCH_ORDER) {
+                int to = board.jumpTarget(from, direction);
+                if (to < 0) {
+                    continue;
+                }
+                int captured = board.middleSquare(from, to);
+                Team capturedTeam = board.teamAt(captured);
+                boolean capturedKing = board.isKing(captured);
+                int node = addNode(BitBoard.encodeCapture(from, to, captured), parent);
+
+                board.remove(captured);
+                board.relocate(from, to);
+                // Under casual rules a checker crowned part way through continues jumping
+                // as a king
+                boolean promoted = board.promoteIfEligible(to);
+                if (!promoted || !stopWhenCrowned) {
+                    search(board, to, node, stopWhenCrowned);
+                }
+                if (promoted) {
+                    board.demote(to);
+                }
+                board.relocate(to, from);
+                board.place(captured, capturedTeam, capturedKing);
+            }
+        }
+
+        private int addNode(int hop, int parent) {
+            if (this.size == this.hops.length) {
+                int capacity = this.size * 2;
+                this.hops = Arrays.copyOf(this.hops, capacity);
+                this.parents = Arrays.copyOf(this.parents, capacity);
+                this.firstChildren = Arrays.copyOf(this.firstChildren, capacity);
+                this.nextSiblings = Arrays.copyOf(this.nextSiblings, capacity);
+            }
+            int node = this.size++;
+            this.hops[node] = hop;
+            this.parents[node] = parent;
+            this.firstChildren[node] = NONE;
+            this.nextSiblings[node] = NONE;
+            if (parent != NONE) {
+                // Append so that children keep the order they were found in
+                int child = this.firstChildren[parent];
+                if (child == NONE) {
+                    this.firstChildren[parent] = node;
+                } else {
+                    while (this.nextSiblings[child] != NONE) {
+                        child = this.nextSiblings[child];
+                    }
+                    this.nextSiblings[child] = node;
+                }
+            }
+            return node;
+        }
+
+        /**
+         * Gets the number of nodes in the tree, including the root
+         * 
+         * @return the node count
+         */
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * Gets the packed capture made to reach a node
+         * 
+         * @param node a node other than the root
+         * @return the packed capture
+         */
+        public int hop(int node) {
+            return this.hops[node];
+        }
+
+        public int parent(int node) {
+            return this.parents[node];
+        }
+
+        public boolean isLeaf(int node) {
+            return this.firstChildren[node] == NONE;
+        }
+
+        /**
+         * Finds the jump from a node that lands on the given square
+         * 
+         * @param node   the node to continue from
+         * @param square the landing square of the next jump
+         * @return the node for that jump, or {@link #NONE} if it is not a valid capture
+         */
+        public int child(int node, int square) {
+            for (int child = this.firstChildren[node]; child != NONE; child = this.nextSiblings[child]) {
+                if (BitBoard.moveTo(this.hops[child]) == square) {
+                    return child;
+                }
+            }
+            return NONE;
+        }
+
+        /**
+         * Writes the captures leading from the root to a node, in the order they are
+         * made
+         * 
+         * @param node the final node of the sequence
+         * @param out  the buffer to fill, large enough for the sequence
+         * @return the number of captures in the sequence
+         */
+        public int chain(int node, int[] out) {
+            int length = 0;
+            for (int current = node; current != ROOT; current = this.parents[current]) {
+                length++;
+            }
+            int index = length;
+            for (int current = node; current != ROOT; current = this.parents[current]) {
+                out[--index] = this.hops[current];
+            }
+            return length;
+        }
+    }
+
+    /**
+     * The moves and captures available to the piece on every square of a board,
+     * kept as one bit per diagonal for stepping and one for jumping. After each move
+     * made through the game only the squares the move touched are looked at again,
+     * together with the squares up to two steps away along each diagonal, since a
+     * piece's moves depend on the next square along a diagonal and its captures on
+     * the two squares after it. The cache remembers the position key it describes
+     * and is rebuilt in full whenever the board was changed some other way.
+     */
+    public static class MoveCache {
+        /*
+         * When set, every lookup first compares the whole cache against a full
+         * generation and throws if they differ
+         */
+        public boolean checked;
+
+        private final BitBoard board;
+
+        /*
+         * For each square, the diagonals along which its piece may step and those
+         * along which it may capture
+         */
+        private final byte[] steps;
+        private final byte[] jumps;
+
+        /*
+         * The team whose moves are cached for each square, as its ordinal plus one, or
+         * 0 for an empty square
+         */
+        private final byte[] owners;
+
+        /*
+         * The number of moves and captures cached for each team, by team ordinal
+         */
+        private final int[] moveCounts = new int[2];
+        private final int[] captureCounts = new int[2];
+
+        /*
+         * The key of the position the cache describes, and whether it describes any
+         */
+        private long hash;
+        private boolean valid;
+
+        /*
+         * Holds the squares of one team while rebuilding or listing moves
+         */
+        private final int[] squares;
+
+        public MoveCache(BitBoard board) {
+            int area = board.boardSize * board.boardSize;
+            this.board = board;
+            this.steps = new byte[area];
+            this.jumps = new byte[area];
+            this.owners = new byte[area];
+            this.squares = new int[area];
+        }
+
+        /**
+         * Brings the cache up to date after a move or capture made through the game,
+         * looking again only at the squares the move could affect
+         * 
+         * @param before   the position key before the move
+         * @param from     where the moving piece started
+         * @param to       where the moving piece finished
+         * @param captured the square of the captured piece, or -1 for a move
+         */
+        void moved(long before, int from, int to, int captured) {
+            if (!this.valid || this.hash != before) {
+                this.valid = false;
+                return;
+            }
+            updateAround(from);
+            updateAround(to);
+            if (captured >= 0) {
+                updateAround(captured);
+            }
+            this.hash = this.board.hash();
+        }
+
+        private void updateAround(int square) {
+            update(square);
+            for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+                int near = this.board.neighbour(square, direction);
+                if (near >= 0) {
+                    update(near);
+                    int far = this.board.neighbour(near, direction);
+                    if (far >= 0) {
+                        update(far);
+                    }
+                }
+            }
+        }
+
+        /*
+         * Replaces the cached moves of one square, keeping the team counts in step
+         */
+        private void update(int square) {
+            if (this.owners[square] != 0) {
+                int team = this.owners[square] - 1;
+                this.moveCounts[team] -= Integer.bitCount(this.steps[square]);
+                this.captureCounts[team] -= Integer.bitCount(this.jumps[square]);
+            }
+            Team team = this.board.teamAt(square);
+            int steps = 0;
+            int jumps = 0;
+            if (team != null) {
+                for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+                    if (this.board.stepTarget(square, direction) >= 0) {
+                        steps |= 1 << direction;
+                    } else if (this.board.jumpTarget(square, direction) >= 0) {
+                        jumps |= 1 << direction;
+                    }
+                }
+                this.moveCounts[team.ordinal()] += Integer.bitCount(steps);
+                this.captureCounts[team.ordinal()] += Integer.bitCount(jumps);
+            }
+            this.steps[square] = (byte) steps;
+            this.jumps[square] = (byte) jumps;
+            this.owners[square] = (byte) (team == null ? 0 : team.ordinal() + 1);
+        }
+
+        /*
+         * Rebuilds the cache if the board has changed since it was last brought up to
+         * date, then checks it against a full generation when asked to
+         */
+        private void refresh() {
+            if (!this.valid || this.hash != this.board.hash()) {
+                Arrays.fill(this.steps, (byte) 0);
+                Arrays.fill(this.jumps, (byte) 0);
+                Arrays.fill(this.owners, (byte) 0);
+                Arrays.fill(this.moveCounts, 0);
+                Arrays.fill(this.captureCounts, 0);
+                for (Team team : Team.values()) {
+                    int count = this.board.pieceSquares(team, this.squares);
+                    for (int i = 0; i < count; i++) {
+                        update(this.squares[i]);
+                    }
+                }
+                this.hash = this.board.hash();
+                this.valid = true;
+            }
+            if (this.checked) {
+                verify();
+            }
+        }
+
+        /**
+         * Compares every cached move and capture against a full generation
+         * 
+         * @throws IllegalStateException if the cache differs from the board
+         */
+        public void verify() {
+            int[] moves = this.board.newMoveBuffer();
+            for (Team team : Team.values()) {
+                for (boolean isCapture : new boolean[] { false, true }) {
+                    int count = this.board.generateMoves(team, isCapture, moves);
+                    if (count != (isCapture ? this.captureCounts : this.moveCounts)[team.ordinal()]) {
+                        throw new IllegalStateException("The move cache holds " + (isCapture ? "captures" : "moves")
+                                + " for " + team + " that a full generation does not find");
+                    }
+                    for (int i = 0; i < count; i++) {
+                        int from = BitBoard.moveFrom(moves[i]);
+                        int to = BitBoard.moveTo(moves[i]);
+                        if (!(isCapture ? isCachedCapture(from, to) : isCachedMove(from, to))) {
+                            throw new IllegalStateException("The move cache is missing "
+                                    + formatTurn(this.board, moves, i, 1) + " for " + team);
+                        }
+                    }
+                }
+            }
+        }
+
+        public int moveCount(Team team) {
+            refresh();
+            return this.moveCounts[team.ordinal()];
+        }
+
+        public int captureCount(Team team) {
+            refresh();
+            return this.captureCounts[team.ordinal()];
+        }
+
+        /**
+         * Checks if the piece on a square may step to another square
+         * 
+         * @param from the square holding the piece
+         * @param to   the proposed destination
+         * @return true if the move is valid
+         */
+        public boolean isValidMove(int from, int to) {
+            refresh();
+            return isCachedMove(from, to);
+        }
+
+        /**
+         * Checks if the piece on a square may capture by jumping to another square
+         * 
+         * @param from the square holding the piece
+         * @param to   the proposed landing square
+         * @return true if the capture is valid
+         */
+        public boolean isValidCapture(int from, int to) {
+            refresh();
+            return isCachedCapture(from, to);
+        }
+
+        private boolean isCachedMove(int from, int to) {
+            for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+                if ((this.steps[from] & 1 << direction) != 0 && this.board.neighbour(from, direction) == to) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isCachedCapture(int from, int to) {
+            for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+                if ((this.jumps[from] & 1 << direction) != 0
+                        && this.board.neighbour(this.board.neighbour(from, direction), direction) == to) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Writes every cached move or capture for a team into the given buffer as
+         * packed ints, grouped by piece from the top left and by diagonal within each
+         * piece
+         * 
+         * @param team      the team to list moves for
+         * @param isCapture set true to list captures rather than moves
+         * @param moves     the buffer to fill, holding at least
+         *                  {@link BitBoard#maxMoves()}
+         * @return the number of moves written to the start of the buffer
+         */
+        public int generate(Team team, boolean isCapture, int[] moves) {
+            refresh();
+            int pieces = this.board.pieceSquares(team, this.squares);
+            Arrays.sort(this.squares, 0, pieces);
+            int count = 0;
+            for (int i = 0; i < pieces; i++) {
+                int from = this.squares[i];
+                int directions = isCapture ? this.jumps[from] : this.steps[from];
+                for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+                    if ((directions & 1 << direction) == 0) {
+                        continue;
+                    }
+                    int to = this.board.neighbour(from, direction);
+                    if (isCapture) {
+                        moves[count++] = BitBoard.encodeCapture(from, this.board.neighbour(to, direction), to);
+                    } else {
+                        moves[count++] = BitBoard.encodeMove(from, to);
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Draws boards and move lists into one reusable buffer that is written out with
+     * a single call per frame, so a frame costs one write however large the board
+     * is. Boards are drawn as rows of cells, as ANSI escapes that redraw only the
+     * squares changed since the previous frame, or as one line of FEN for programs
+     * reading the output. Frames are ASCII.
+     */
+    public static class Renderer {
+        /*
+         * How boards are drawn
+         */
+        public static enum Mode {
+            PLAIN,
+            ANSI,
+            FEN
+        }
+
+        private static final char ESCAPE = 27;
+
+        public final Mode mode;
+
+        private final PrintStream out;
+
+        /*
+         * The frame being built, and the bytes it is encoded into when written. Both
+         * are kept between frames
+         */
+        private final StringBuilder frame = new StringBuilder(1024);
+        private byte[] bytes = new byte[1024];
+
+        /*
+         * The symbol on each square when the last ANSI frame was drawn, null before the
+         * first one
+         */
+        private char[] shown;
+
+        /**
+         * @param out  where frames are written
+         * @param mode how boards are drawn
+         */
+        public Renderer(PrintStream out, Mode mode) {
+            this.out = out;
+            this.mode = mode;
+        }
+
+        /**
+         * Draws the board of a game. In ANSI mode the first board clears the screen and
+         * keeps the board fixed at the top while later text scrolls beneath it, and
+         * each board after that only redraws the squares that changed
+         * 
+         * @param game     the game to draw
+         * @param nextTeam the team to move, needed only for FEN
+         * @return this renderer
+         */
+        public Renderer board(Game game, Team nextTeam) {
+            Metrics metrics = Metrics.active();
+            long started = metrics == null ? 0L : metrics.begin();
+            switch (this.mode) {
+                case FEN:
+                    Fen.append(this.frame, game, nextTeam);
+                    this.frame.append(System.lineSeparator());
+                    break;
+                case ANSI:
+                    if (this.shown == null || this.shown.length != game.boardSize * game.boardSize) {
+                        this.shown = new char[game.boardSize * game.boardSize];
+                        this.frame.append(ESCAPE).append("[2J").append(ESCAPE).append("[H");
+                        rows(game);
+                        // Scroll only the lines below the board, then carry on writing there
+                        this.frame.append(ESCAPE).append('[').append(game.boardSize + 1).append('r');
+                        this.frame.append(ESCAPE).append('[').append(game.boardSize + 1).append(";1H");
+                    } else {
+                        redraw(game);
+                    }
+                    break;
+                default:
+                    rows(game);
+            }
+            if (metrics != null) {
+                metrics.end(Metrics.Timer.RENDER, started);
+            }
+            return this;
+        }
+
+        private void rows(Game game) {
+            for (int y = 0; y < game.boardSize; y++) {
+                for (int x = 0; x < game.boardSize; x++) {
+                    int square = game.board.square(x, y);
+                    char symbol = symbolAt(game.board, square);
+                    this.frame.append('|').append(symbol).append('|');
+                    if (this.shown != null) {
+                        this.shown[square] = symbol;
+                    }
+                }
+                this.frame.append(System.lineSeparator());
+            }
+        }
+
+        /*
+         * Moves the cursor to each changed square and draws it, then puts the cursor
+         * back where the text below the board had reached
+         */
+        private void redraw(Game game) {
+            int start = this.frame.length();
+            this.frame.append(ESCAPE).append('7');
+            boolean changed = false;
+            for (int square = 0; square < this.shown.length; square++) {
+                char symbol = symbolAt(game.board, square);
+                if (symbol != this.shown[square]) {
+                    this.shown[square] = symbol;
+                    int row = square / game.boardSize + 1;
+                    int column = 3 * (square % game.boardSize) + 2;
+                    this.frame.append(ESCAPE).append('[').append(row).append(';').append(column).append('H')
+                            .append(symbol);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                this.frame.append(ESCAPE).append('8');
+            } else {
+                this.frame.setLength(start);
+            }
+        }
+
+        private static char symbolAt(BitBoard board, int square) {
+            if (!board.isOccupied(square)) {
+                return ' ';
+            }
+            char symbol = board.teamAt(square) == Team.RED ? 'r' : 'b';
+            return board.isKing(square) ? Character.toUpperCase(symbol) : symbol;
+        }
+
+        /**
+         * Lists each checker with the locations it can move or capture to
+         * 
+         * @param moves the checkers mapped to their moves
+         * @return this renderer
+         */
+        public Renderer moves(Map<Checker, List<Location>> moves) {
+            for (Map.Entry<Checker, List<Location>> entry : moves.entrySet()) {
+                location(entry.getKey().location).append(" -> ");
+                for (Location move : entry.getValue()) {
+                    location(move).append(", ");
+                }
+                this.frame.append(System.lineSeparator());
+            }
+            return this;
+        }
+
+        /**
+         * Writes a sequence of captures starting from a checker's location
+         * 
+         * @param start the location of the capturing checker
+         * @param chain the locations jumped to, in order
+         * @return this renderer
+         */
+        public Renderer chain(Location start, List<Location> chain) {
+            location(start).append(" -> ");
+            for (Location capture : chain) {
+                location(capture).append(", ");
+            }
+            this.frame.append(System.lineSeparator());
+            return this;
+        }
+
+        private StringBuilder location(Location location) {
+            return this.frame.append('(').append(location.x).append(", ").append(location.y).append(')');
+        }
+
+        /**
+         * Adds a line of text to the frame
+         * 
+         * @param text the text, without a line ending
+         * @return this renderer
+         */
+        public Renderer line(CharSequence text) {
+            this.frame.append(text).append(System.lineSeparator());
+            return this;
+        }
+
+        /**
+         * Gives the whole screen back to scrolling text once the last ANSI frame has
+         * been drawn, leaving the cursor at the bottom, and writes the frame
+         */
+        public void finish() {
+            if (this.mode == Mode.ANSI && this.shown != null) {
+                this.frame.append(ESCAPE).append("[r").append(ESCAPE).append("[999;1H");
+                this.shown = null;
+            }
+            flush();
+        }
+
+        /**
+         * Writes the frame with a single call and starts the next one
+         */
+        public void flush() {
+            Metrics metrics = Metrics.active();
+            long started = metrics == null ? 0L : metrics.begin();
+            int length = this.frame.length();
+            if (this.bytes.length < length) {
+                this.bytes = new byte[Math.max(length, this.bytes.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                char c = this.frame.charAt(i);
+                this.bytes[i] = (byte) (c < 128 ? c : '?');
+            }
+            this.out.write(this.bytes, 0, length);
+            this.out.flush();
+            this.frame.setLength(0);
+            if (metrics != null) {
+                metrics.end(Metrics.Timer.OUTPUT, started);
+            }
+        }
+    }
+
+    /**
+     * The attributes and operations {@link Metrics} exposes over JMX
+     */
+    public interface MetricsMBean {
+        long getMovesGenerated();
+
+        long getMovesExecuted();
+
+        long getCapturesExecuted();
+
+        long getAllocatedBytes();
+
+        /**
+         * @return one line for each timer giving its count, mean, percentiles and
+         *         maximum in microseconds
+         */
+        String[] getTimers();
+
+        String getReport();
+
+        void reset();
+    }
+
+    /**
+     * Timings and counts of the work done on each turn of the console game and the
+     * server. Collection is off until {@link #enable()} is called. While it is off,
+     * every instrumented call costs one read of a static field and a null check,
+     * without reading the clock. Metrics are recorded from the thread running the
+     * game. Readers on other threads, such as JMX clients, may see a recording
+     * half made.
+     */
+    public static class Metrics implements MetricsMBean {
+        /*
+         * The timed parts of a turn
+         */
+        public static enum Timer {
+            GENERATE("getValidMovesForTeam"),
+            MOVE("move"),
+            CAPTURE("capture"),
+            RENDER("render"),
+            OUTPUT("output"),
+            PARSE("parse"),
+            INPUT("input");
+
+            public final String label;
+
+            Timer(String label) {
+                this.label = label;
+            }
+        }
+
+        /*
+         * The name metrics are registered under with the platform MBean server
+         */
+        public static final String OBJECT_NAME = "checkers:type=Metrics";
+
+        /*
+         * The metrics being collected, or null when collection is off
+         */
+        private static Metrics active;
+
+        /*
+         * Looked up once, as finding the bean and the thread on every call allocates
+         * more than most of the sections being measured. Null when the JVM cannot
+         * count allocations.
+         */
+        private static final com.sun.management.ThreadMXBean ALLOCATIONS = ManagementFactory
+                .getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+                        ? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()
+                        : null;
+
+        private final Histogram[] timers = new Histogram[Timer.values().length];
+        private final long[] allocations = new long[Timer.values().length];
+        private long movesGenerated;
+        private long movesExecuted;
+        private long capturesExecuted;
+
+        /*
+         * The allocation counter read as each timed section began, so sections can
+         * nest
+         */
+        private long[] allocationStarts = new long[8];
+        private int depth;
+
+        private Metrics() {
+            for (int i = 0; i < this.timers.length; i++) {
+                this.timers[i] = new Histogram();
+            }
+        }
+
+        /**
+         * Starts collecting metrics, replacing any collected before
+         * 
+         * @return the metrics now being collected
+         */
+        public static Metrics enable() {
+            active = new Metrics();
+            return active;
+        }
+
+        public static void disable() {
+            active = null;
+        }
+
+        /**
+         * @return the metrics being collected, or null when collection is off
+         */
+        public static Metrics active() {
+            return active;
+        }
+
+        /**
+         * Registers the metrics with the platform MBean server, replacing any
+         * registered before
+         */
+        public void register() {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(new StandardMBean(this, MetricsMBean.class), name);
+            } catch (JMException e) {
+                throw new IllegalStateException("Could not register metrics with JMX", e);
+            }
+        }
+
+        /**
+         * Starts timing a section
+         * 
+         * @return the start time to hand to {@link #end(Timer, long)}
+         */
+        public long begin() {
+            if (this.depth == this.allocationStarts.length) {
+                this.allocationStarts = Arrays.copyOf(this.allocationStarts, this.depth * 2);
+            }
+            this.allocationStarts[this.depth++] = allocatedBytes();
+            return System.nanoTime();
+        }
+
+        /**
+         * Finishes timing the section most recently begun
+         * 
+         * @param timer the timer to record the section against
+         * @param start the time returned when the section began
+         */
+        public void end(Timer timer, long start) {
+            this.timers[timer.ordinal()].record(System.nanoTime() - start);
+            long allocated = this.allocationStarts[--this.depth];
+            if (allocated >= 0) {
+                this.allocations[timer.ordinal()] += allocatedBytes() - allocated;
+            }
+        }
+
+        static long allocatedBytes() {
+            return ALLOCATIONS == null ? -1 : ALLOCATIONS.getCurrentThreadAllocatedBytes();
+        }
+
+        public void movesGenerated(int count) {
+            this.movesGenerated += count;
+        }
+
+        public void moveExecuted() {
+            this.movesExecuted++;
+        }
+
+        public void captureExecuted() {
+            this.capturesExecuted++;
+        }
+
+        public Histogram timer(Timer timer) {
+            return this.timers[timer.ordinal()];
+        }
+
+        @Override
+        public long getMovesGenerated() {
+            return this.movesGenerated;
+        }
+
+        @Override
+        public long getMovesExecuted() {
+            return this.movesExecuted;
+        }
+
+        @Override
+        public long getCapturesExecuted() {
+            return this.capturesExecuted;
+        }
+
+        @Override
+        public long getAllocatedBytes() {
+            long total = 0;
+            for (long allocated : this.allocations) {
+                total += allocated;
+            }
+            return total;
+        }
+
+        @Override
+        public String[] getTimers() {
+            String[] lines = new String[this.timers.length];
+            for (Timer timer : Timer.values()) {
+                Histogram histogram = this.timers[timer.ordinal()];
+                lines[timer.ordinal()] = String.format("%-22s %9d %10.1f %10.1f %10.1f %10.1f %10.1f %10.0f",
+                        timer.label, histogram.count(), histogram.mean() / 1e3, histogram.percentile(50) / 1e3,
+                        histogram.percentile(99) / 1e3, histogram.percentile(99.9) / 1e3, histogram.max() / 1e3,
+                        histogram.count() == 0 ? 0.0 : (double) this.allocations[timer.ordinal()] / histogram.count());
+            }
+            return lines;
+        }
+
+        @Override
+        public String getReport() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("%-22s %9s %10s %10s %10s %10s %10s %10s%n", "Timer (us)", "count", "mean",
+                    "p50", "p99", "p99.9", "max", "B/op"));
+            for (String line : getTimers()) {
+                report.append(line).append(System.lineSeparator());
+            }
+            report.append("Moves generated: ").append(this.movesGenerated).append(System.lineSeparator());
+            report.append("Moves executed: ").append(this.movesExecuted).append(System.lineSeparator());
+            report.append("Captures executed: ").append(this.capturesExecuted).append(System.lineSeparator());
+            report.append("Bytes allocated in timed sections: ").append(getAllocatedBytes())
+                    .append(System.lineSeparator());
+            return report.toString();
+        }
+
+        @Override
+        public void reset() {
+            for (Histogram histogram : this.timers) {
+                histogram.reset();
+            }
+            Arrays.fill(this.allocations, 0L);
+            this.movesGenerated = 0;
+            this.movesExecuted = 0;
+            this.capturesExecuted = 0;
+        }
+    }
+
+    /**
+     * Counts recorded values in buckets whose width grows with the values they
+     * hold, in the manner of an HDR histogram. Values are grouped by their highest
+     * set bit, and each group is split into {@link #SUB_BUCKETS} equal parts. Any
+     * value is therefore reported within about 6% of its true size, using a fixed
+     * array of about a thousand counts for the whole range of a long.
+     */
+    public static class Histogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final long[] counts = new long[(Long.SIZE - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS];
+        private long count;
+        private long sum;
+        private long max;
+
+        /**
+         * Adds a value, which must not be negative
+         * 
+         * @param value the value to add
+         */
+        public void record(long value) {
+            this.counts[indexOf(value)]++;
+            this.count++;
+            this.sum += value;
+            this.max = Math.max(this.max, value);
+        }
+
+        private static int indexOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS | subBucket;
+        }
+
+        /*
+         * Gets the largest value that falls into a bucket
+         */
+        private static long highestValueIn(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = (index >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+            long lowest = (long) (SUB_BUCKETS | index & (SUB_BUCKETS - 1)) << (exponent - SUB_BUCKET_BITS);
+            return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+
+        public long count() {
+            return this.count;
+        }
+
+        public long max() {
+            return this.max;
+        }
+
+        public double mean() {
+            return this.count == 0 ? 0.0 : (double) this.sum / this.count;
+        }
+
+        /**
+         * Gets the value below which a given share of the recorded values fall
+         * 
+         * @param percentile the share, from 0 to 100
+         * @return the largest value in the bucket holding that share, no more than the
+         *         largest value recorded, or 0 if nothing was recorded
+         */
+        public long percentile(double percentile) {
+            long rank = (long) Math.ceil(percentile / 100 * this.count);
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min(highestValueIn(i), this.max);
+                }
+            }
+            return 0;
+        }
+
+        public void reset() {
+            Arrays.fill(this.counts, 0L);
+            this.count = 0;
+            this.sum = 0;
+            this.max = 0;
+        }
+    }
+
+    /**
+     * A computer player that chooses turns with a negamax alpha-beta search. Searches
+     * deepen one ply at a time until the time budget for the turn runs out, keeping
+     * the best turn of the deepest search that finished. A turn is either a single
+     * move or a sequence of one or more captures, and captures are searched first.
+     */
+    public static class Engine {
+        /*
+         * The time allowed for each turn when none is configured
+         */
+        public static final long DEFAULT_TIME_MILLIS = 100;
+
+        /*
+         * The score of a won game, reduced by the number of plies needed to win it
+         */
+        public static final int WIN_SCORE = 1_000_000;
+
+        /*
+         * The deepest a search can reach, including any plies where a team has to pass
+         */
+        public static final int MAX_PLY = 128;
+
+        private static final int INFINITY = WIN_SCORE + 1;
+        private static final int MAN_VALUE = 100;
+        private static final int KING_VALUE = 160;
+        private static final int ADVANCE_VALUE = 3;
+
+        /*
+         * How many nodes are searched between checks of the clock
+         */
+        private static final int CLOCK_CHECK_INTERVAL = 1024;
+
+        /*
+         * The size of the transposition table when none is configured
+         */
+        public static final int DEFAULT_HASH_MEGABYTES = 16;
+
+        /*
+         * Scores of positions the endgame database has solved, reduced by the plies
+         * needed to win. They sit below the scores of wins the search finds itself, so
+         * they are not adjusted by the ply they are found at
+         */
+        private static final int ENDGAME_WIN_SCORE = WIN_SCORE / 2;
+
+        private final long timeBudgetNanos;
+        private final TranspositionTable table;
+
+        /*
+         * Consulted before searching and during the search, when set
+         */
+        private OpeningBook book;
+        private EndgameDatabase endgames;
+
+        /*
+         * One searcher per thread. The first runs on the calling thread and decides the
+         * turn, while the rest are helpers sharing the transposition table
+         */
+        private final Searcher[] searchers;
+        private final ExecutorService helperPool;
+
+        /*
+         * The wall clock time at which searching must stop
+         */
+        private volatile long deadline;
+
+        /*
+         * Set once the main search is over, telling the helpers to stop
+         */
+        private volatile boolean stopped;
+
+        public Engine(long timeBudgetMillis) {
+            this(timeBudgetMillis, DEFAULT_HASH_MEGABYTES, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED, 1);
+        }
+
+        /**
+         * Creates an engine searching with the given number of threads. Extra threads
+         * run their own searches of the same position and share what they learn through
+         * the transposition table (lazy SMP), so the main search reaches each depth
+         * sooner
+         * 
+         * @param timeBudgetMillis the time allowed for each turn
+         * @param hashMegabytes    the memory for the transposition table
+         * @param policy           how the transposition table replaces entries
+         * @param threads          the number of threads to search with, at least 1
+         */
+        public Engine(long timeBudgetMillis, int hashMegabytes, TranspositionTable.ReplacementPolicy policy,
+                int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("The engine needs at least one thread");
+            }
+            this.timeBudgetNanos = timeBudgetMillis * 1_000_000;
+            this.table = new TranspositionTable(hashMegabytes, policy);
+            this.searchers = new Searcher[threads];
+            for (int i = 0; i < threads; i++) {
+                this.searchers[i] = new Searcher(i);
+            }
+            this.helperPool = threads == 1 ? null : Executors.newFixedThreadPool(threads - 1, runnable -> {
+                Thread thread = new Thread(runnable, "engine-helper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        public int threads() {
+            return this.searchers.length;
+        }
+
+        /**
+         * Plays turns from an opening book whenever it holds one for the position
+         * 
+         * @param book the book to play from
+         */
+        public void useBook(OpeningBook book) {
+            this.book = book;
+        }
+
+        /**
+         * Scores positions the endgame database covers by their exact result instead of
+         * searching them
+         * 
+         * @param endgames the database to consult
+         */
+        public void useEndgames(EndgameDatabase endgames) {
+            this.endgames = endgames;
+        }
+
+        /**
+         * Finds the best turn for a team within the engine's time budget
+         * 
+         * @param game the current game, which is left untouched
+         * @param team the team to choose a turn for
+         * @return the chosen turn and statistics about the search
+         */
+        public SearchResult search(Game game, Team team) {
+            return search(game, team, MAX_PLY, this.timeBudgetNanos);
+        }
+
+        /**
+         * Finds the best turn for a team by searching to a fixed depth, however long
+         * that takes. The chosen turn and score are the same for any number of threads
+         * 
+         * @param game  the current game, which is left untouched
+         * @param team  the team to choose a turn for
+         * @param depth the number of plies to search
+         * @return the chosen turn and statistics about the search
+         */
+        public SearchResult searchToDepth(Game game, Team team, int depth) {
+            return search(game, team, depth, Long.MAX_VALUE / 2);
+        }
+
+        /**
+         * Scores every turn available to a team by searching each to a fixed depth on
+         * the calling thread, ignoring the opening book. Only the best turns get exact
+         * scores: the others are searched just far enough to prove they score no more
+         * than the worst of those, which keeps ranking close to the cost of a search
+         * 
+         * @param game  the current game, which is left untouched
+         * @param team  the team to rank turns for
+         * @param depth the number of plies to search
+         * @param exact how many of the best turns need exact scores
+         * @return every turn, best first
+         */
+        public Ranking rank(Game game, Team team, int depth, int exact) {
+            long start = System.nanoTime();
+            this.deadline = Long.MAX_VALUE;
+            this.stopped = false;
+            this.table.newSearch();
+            Ranking ranking = this.searchers[0].rank(game.copy(), team, depth, exact);
+            ranking.nodes = this.searchers[0].nodes;
+            ranking.elapsedNanos = System.nanoTime() - start;
+            return ranking;
+        }
+
+        private SearchResult search(Game game, Team team, int maxDepth, long budgetNanos) {
+            long start = System.nanoTime();
+            if (this.book != null) {
+                int bookTurn = this.book.probe(game.board.hash(team));
+                TurnList turns = new TurnList();
+                turns.generate(game, team);
+                int index = bookTurn == OpeningBook.NO_TURN ? -1 : turns.indexOf(bookTurn);
+                if (index >= 0) {
+                    SearchResult result = new SearchResult();
+                    result.hops = turns.hops(index);
+                    result.turn = bookTurn;
+                    result.fromBook = true;
+                    result.threads = this.searchers.length;
+                    result.elapsedNanos = System.nanoTime() - start;
+                    return result;
+                }
+            }
+            this.deadline = start + budgetNanos;
+            this.stopped = false;
+            this.table.newSearch();
+
+            List<Future<?>> helpers = new ArrayList<>();
+            for (int i = 1; i < this.searchers.length; i++) {
+                Searcher helper = this.searchers[i];
+                Game copy = game.copy();
+                helpers.add(this.helperPool.submit(() -> helper.iterate(copy, team, maxDepth)));
+            }
+            // Like the helpers, the main search plays on a copy, which starts without the
+            // game's move cache and so does not update it at every node
+            SearchResult result = this.searchers[0].iterate(game.copy(), team, maxDepth);
+            this.stopped = true;
+            for (Future<?> helper : helpers) {
+                try {
+                    helper.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("An engine helper thread failed", e.getCause());
+                }
+            }
+            for (Searcher searcher : this.searchers) {
+                result.nodes += searcher.nodes;
+            }
+            result.threads = this.searchers.length;
+            result.elapsedNanos = System.nanoTime() - start;
+            return result;
+        }
+
+        /**
+         * Runs the search for one thread. Each searcher owns its turn lists and copy of
+         * the game, so only the transposition table is shared.
+         */
+        private final class Searcher {
+            private final int id;
+            private final TurnList[] turnLists = new TurnList[MAX_PLY + 1];
+            private Game game;
+            private long nodes;
+            private boolean aborted;
+
+            /*
+             * Holds the squares of one team while evaluating boards too wide for masks
+             */
+            private int[] squares = new int[0];
+
+            Searcher(int id) {
+                this.id = id;
+            }
+
+            /*
+             * Deepens the search one ply at a time until the deadline, the maximum depth or
+             * the end of the main search. Helpers start on different turns so their trees
+             * diverge from the main search
+             */
+            SearchResult iterate(Game game, Team team, int maxDepth) {
+                this.game = game;
+                this.nodes = 0;
+                this.aborted = false;
+                if (this.squares.length < game.boardSize * game.boardSize) {
+                    this.squares = new int[game.boardSize * game.boardSize];
+                }
+
+                TurnList rootTurns = turnList(0);
+                rootTurns.generate(game, team);
+                SearchResult result = new SearchResult();
+                if (rootTurns.count == 0) {
+                    result.hops = new int[0];
+                    result.turn = -1;
+                    this.game = null;
+                    return result;
+                }
+                if (this.id > 0) {
+                    rootTurns.moveToFront(this.id % rootTurns.count);
+                }
+                int bestTurn = 0;
+                result.score = -INFINITY;
+                for (int depth = 1; depth <= maxDepth && depth <= MAX_PLY; depth++) {
+                    int alpha = -INFINITY;
+                    int iterationBest = -1;
+                    for (int i = 0; i < rootTurns.count; i++) {
+                        rootTurns.make(this.game, i);
+                        int score = -negamax(opponentOf(team), depth - 1, -INFINITY, -alpha, 1);
+                        rootTurns.unmake(this.game, i);
+                        if (this.aborted) {
+                            break;
+                        }
+                        if (score > alpha) {
+                            alpha = score;
+                            iterationBest = i;
+                        }
+                    }
+                    if (this.aborted) {
+                        break;
+                    }
+                    // Search the best turn first on the next iteration so it sets the
+                    // tightest bound
+                    rootTurns.moveToFront(iterationBest);
+                    bestTurn = 0;
+                    result.depth = depth;
+                    result.score = alpha;
+                    if (rootTurns.count == 1 || Math.abs(alpha) > WIN_SCORE - MAX_PLY) {
+                        break;
+                    }
+                }
+                result.hops = rootTurns.hops(bestTurn);
+                result.turn = rootTurns.id(bestTurn);
+                this.game = null;
+                return result;
+            }
+
+            /*
+             * Scores every root turn at each depth up to the maximum, reordering them best
+             * first after each iteration. A turn is searched with the score of the last of
+             * the best turns found so far as its bound, so it is exact only when it beats
+             * that score
+             */
+            Ranking rank(Game game, Team team, int maxDepth, int exact) {
+                this.game = game;
+                this.nodes = 0;
+                this.aborted = false;
+                if (this.squares.length < game.boardSize * game.boardSize) {
+                    this.squares = new int[game.boardSize * game.boardSize];
+                }
+                TurnList rootTurns = turnList(0);
+                rootTurns.generate(game, team);
+                int count = rootTurns.count;
+                int[] scores = new int[count];
+                boolean[] isExact = new boolean[count];
+                int[] best = new int[Math.max(1, Math.min(exact, count))];
+                Ranking ranking = new Ranking();
+                for (int depth = 1; depth <= maxDepth && depth <= MAX_PLY && count > 0; depth++) {
+                    int found = 0;
+                    int bound = -INFINITY;
+                    for (int i = 0; i < count; i++) {
+                        rootTurns.make(this.game, i);
+                        int score = -negamax(opponentOf(team), depth - 1, -INFINITY, -bound, 1);
+                        rootTurns.unmake(this.game, i);
+                        scores[i] = score;
+                        isExact[i] = score > bound;
+                        if (isExact[i]) {
+                            // Keep the best exact scores in descending order
+                            int j = Math.min(found, best.length - 1);
+                            while (j > 0 && best[j - 1] < score) {
+                                best[j] = best[j - 1];
+                                j--;
+                            }
+                            best[j] = score;
+                            found = Math.min(found + 1, best.length);
+                            if (found == best.length) {
+                                bound = best[best.length - 1];
+                            }
+                        }
+                    }
+                    // Moving each lowest scoring turn left to the front leaves the list best
+                    // first, and taking the last of equal scores keeps ties in search order
+                    for (int moved = 0; moved < count; moved++) {
+                        int lowest = moved;
+                        for (int i = moved + 1; i < count; i++) {
+                            if (scores[i] <= scores[lowest]) {
+                                lowest = i;
+                            }
+                        }
+                        int score = scores[lowest];
+                        boolean wasExact = isExact[lowest];
+                        System.arraycopy(scores, 0, scores, 1, lowest);
+                        System.arraycopy(isExact, 0, isExact, 1, lowest);
+                        scores[0] = score;
+                        isExact[0] = wasExact;
+                        rootTurns.moveToFront(lowest);
+                    }
+                    ranking.depth = depth;
+                }
+                ranking.hops = new int[count][];
+                ranking.commands = new String[count];
+                for (int i = 0; i < count; i++) {
+                    ranking.hops[i] = rootTurns.hops(i);
+                    ranking.commands[i] = rootTurns.toCommand(i, game.board);
+                }
+                ranking.scores = scores;
+                ranking.exact = isExact;
+                this.game = null;
+                return ranking;
+            }
+
+            private int negamax(Team team, int depth, int alpha, int beta, int ply) {
+                this.nodes++;
+                if ((this.nodes & (CLOCK_CHECK_INTERVAL - 1)) == 0
+                        && (Engine.this.stopped || System.nanoTime() > Engine.this.deadline)) {
+                    this.aborted = true;
+                }
+                if (this.aborted) {
+                    return 0;
+                }
+                BitBoard board = this.game.board;
+                if (this.game.isComplete || board.pieceCount(team) == 0) {
+                    return -WIN_SCORE + ply;
+                }
+                if (Engine.this.endgames != null) {
+                    int result = Engine.this.endgames.probe(board, team);
+                    if (result != EndgameDatabase.UNKNOWN) {
+                        return result > 0 ? ENDGAME_WIN_SCORE - result
+                                : result < 0 ? -ENDGAME_WIN_SCORE - result : 0;
+                    }
+                }
+                if (depth <= 0 || ply >= MAX_PLY) {
+                    return evaluate(board, team, this.squares);
+                }
+                long key = board.hash(team);
+                long entry = Engine.this.table.probe(key);
+                int tableTurn = TranspositionTable.NO_TURN;
+                if (entry != TranspositionTable.MISS) {
+                    tableTurn = TranspositionTable.turn(entry);
+                    // Only results of exactly this depth are trusted, so a score never
+                    // depends on what other searches happened to store first. Other
+                    // entries still help by ordering the turns
+                    if (TranspositionTable.depth(entry) == depth) {
+                        int score = fromTable(TranspositionTable.score(entry), ply);
+                        int bound = TranspositionTable.bound(entry);
+                        if (bound == TranspositionTable.EXACT
+                                || (bound == TranspositionTable.LOWER_BOUND && score >= beta)
+                                || (bound == TranspositionTable.UPPER_BOUND && score <= alpha)) {
+                            return score;
+                        }
+                    }
+                }
+                TurnList turns = turnList(ply);
+                turns.generate(this.game, team);
+                if (turns.count == 0) {
+                    // A team with no moves has lost, as Game.endTurn rules
+                    return -WIN_SCORE + ply;
+                }
+                if (tableTurn != TranspositionTable.NO_TURN) {
+                    int index = turns.indexOf(tableTurn);
+                    if (index > 0) {
+                        turns.moveToFront(index);
+                    }
+                }
+                int alphaOriginal = alpha;
+                int best = -INFINITY;
+                int bestTurn = TranspositionTable.NO_TURN;
+                for (int i = 0; i < turns.count; i++) {
+                    turns.make(this.game, i);
+                    int score = -negamax(opponentOf(team), depth - 1, -beta, -alpha, ply + 1);
+                    turns.unmake(this.game, i);
+                    if (this.aborted) {
+                        return 0;
+                    }
+                    if (score > best) {
+                        best = score;
+                        bestTurn = turns.id(i);
+                        if (score > alpha) {
+                            alpha = score;
+                            if (alpha >= beta) {
+                                break;
+                            }
+                        }
+                    }
+                }
+                int bound = best <= alphaOriginal ? TranspositionTable.UPPER_BOUND
+                        : best >= beta ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+                Engine.this.table.store(key, depth, bound, toTable(best, ply), bestTurn);
+                return best;
+            }
+
+            private TurnList turnList(int ply) {
+                if (this.turnLists[ply] == null) {
+                    this.turnLists[ply] = new TurnList();
+                }
+                return this.turnLists[ply];
+            }
+        }
+
+        /*
+         * Winning scores count plies from the root, so they are stored counting from the
+         * position itself and converted back when read
+         */
+        private static int toTable(int score, int ply) {
+            if (score > WIN_SCORE - MAX_PLY) {
+                return score + ply;
+            }
+            if (score < -WIN_SCORE + MAX_PLY) {
+                return score - ply;
+            }
+            return score;
+        }
+
+        private static int fromTable(int score, int ply) {
+            if (score > WIN_SCORE - MAX_PLY) {
+                return score - ply;
+            }
+            if (score < -WIN_SCORE + MAX_PLY) {
+                return score + ply;
+            }
+            return score;
+        }
+
+        /**
+         * Scores a board from the point of view of a team, counting material and how
+         * far each checker has advanced towards being crowned
+         * 
+         * @param board   the board to score
+         * @param team    the team to score for
+         * @param squares a buffer for the squares of one team, used on boards too wide
+         *                for masks
+         * @return positive scores favour the team
+         */
+        private static int evaluate(BitBoard board, Team team, int[] squares) {
+            if (!board.isPacked()) {
+                int score = 0;
+                for (Team side : Team.values()) {
+                    int sideScore = 0;
+                    int count = board.pieceSquares(side, squares);
+                    for (int i = 0; i < count; i++) {
+                        int row = squares[i] / board.boardSize;
+                        if (board.isKing(squares[i])) {
+                            sideScore += KING_VALUE;
+                        } else {
+                            sideScore += MAN_VALUE
+                                    + ADVANCE_VALUE * (side == Team.RED ? board.boardSize - 1 - row : row);
+                        }
+                    }
+                    score += side == team ? sideScore : -sideScore;
+                }
+                return score;
+            }
+            long redMen = board.red & ~board.kings;
+            long blackMen = board.black & ~board.kings;
+            int score = MAN_VALUE * (Long.bitCount(redMen) - Long.bitCount(blackMen))
+                    + KING_VALUE * (Long.bitCount(board.red & board.kings) - Long.bitCount(board.black & board.kings));
+            while (redMen != 0L) {
+                int square = Long.numberOfTrailingZeros(redMen);
+                redMen &= redMen - 1;
+                score += ADVANCE_VALUE * (board.boardSize - 1 - square / board.boardSize);
+            }
+            while (blackMen != 0L) {
+                int square = Long.numberOfTrailingZeros(blackMen);
+                blackMen &= blackMen - 1;
+                score -= ADVANCE_VALUE * (square / board.boardSize);
+            }
+            return team == Team.RED ? score : -score;
+        }
+
+        /**
+         * The outcome of a search
+         */
+        public static class SearchResult {
+            /*
+             * The packed moves or captures making up the chosen turn, empty if the team
+             * has to pass
+             */
+            public int[] hops;
+
+            /*
+             * The position of the chosen turn in a freshly generated TurnList for the same
+             * board, or -1 if the team has to pass
+             */
+            public int turn;
+
+            /*
+             * The score of the chosen turn from the point of view of the team searched for
+             */
+            public int score;
+
+            /*
+             * The depth of the deepest search that finished
+             */
+            public int depth;
+
+            /*
+             * Set when the turn was taken from the opening book without searching
+             */
+            public boolean fromBook;
+
+            /*
+             * The number of positions visited, across every thread
+             */
+            public long nodes;
+
+            /*
+             * The number of threads that searched
+             */
+            public int threads;
+
+            /*
+             * The wall clock time the search took
+             */
+            public long elapsedNanos;
+
+            public long nodesPerSecond() {
+                return this.elapsedNanos == 0 ? 0 : this.nodes * 1_000_000_000L / this.elapsedNanos;
+            }
+
+            /**
+             * Describes the chosen turn in the same form a user would enter it
+             * 
+             * @param board the board the turn is for
+             * @return a move, capture or skip command
+             */
+            public String toCommand(BitBoard board) {
+                return formatTurn(board, this.hops, 0, this.hops.length);
+            }
+        }
+
+        /**
+         * Every turn available in a position, best first, as scored by
+         * {@link Engine#rank}
+         */
+        public static class Ranking {
+            /*
+             * The packed moves or captures making up each turn
+             */
+            public int[][] hops;
+
+            /*
+             * Each turn in the same form a user would enter it
+             */
+            public String[] commands;
+
+            /*
+             * The score of each turn from the point of view of the team ranked for. A
+             * score that is not exact is only an upper bound
+             */
+            public int[] scores;
+            public boolean[] exact;
+
+            /*
+             * The depth every turn was searched to
+             */
+            public int depth;
+
+            /*
+             * The number of positions visited
+             */
+            public long nodes;
+
+            /*
+             * The wall clock time the ranking took
+             */
+            public long elapsedNanos;
+
+            /**
+             * Finds a turn by the command a user would enter for it
+             * 
+             * @param command a move or capture command
+             * @return the turn's position in the ranking, or -1 if no turn matches
+             */
+            public int indexOf(String command) {
+                for (int i = 0; i < this.commands.length; i++) {
+                    if (this.commands[i].equals(command)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Gives hints and checks turns for blunders in the console game. Each position
+     * is analysed once: its turns are ranked by an engine search, and each turn is
+     * played out a few plies further with both teams playing for material, to find
+     * the checkers it gives up. Analyses are kept in a least recently used cache
+     * keyed by the position's hash, so asking again, or coming back to a position,
+     * is answered without searching.
+     */
+    public static class Analyst {
+        /*
+         * The plies each turn is ranked to when none is configured
+         */
+        public static final int DEFAULT_DEPTH = 8;
+
+        /*
+         * How many turns a hint lists when the request does not say
+         */
+        public static final int DEFAULT_HINTS = 3;
+
+        /*
+         * The plies after a turn searched for the checkers it gives up when none is
+         * configured
+         */
+        public static final int DEFAULT_BLUNDER_PLIES = 4;
+
+        /*
+         * How many analysed positions are kept when no size is configured
+         */
+        public static final int DEFAULT_CACHE_SIZE = 256;
+
+        private final Engine engine;
+        private final int depth;
+        private final int blunderPlies;
+        private final Map<Long, Analysis> cache;
+
+        /*
+         * One turn list for each ply of the material search
+         */
+        private final TurnList[] turnLists;
+
+        /*
+         * How many analyses were answered from the cache and how many were searched
+         */
+        private long hits;
+        private long misses;
+
+        public Analyst() {
+            this(DEFAULT_DEPTH, DEFAULT_BLUNDER_PLIES, DEFAULT_CACHE_SIZE);
+        }
+
+        /**
+         * Creates an analyst with its own engine and cache
+         * 
+         * @param depth        the plies each turn is ranked to
+         * @param blunderPlies the plies after a turn searched for the checkers it gives
+         *                     up, 0 to not check for blunders
+         * @param cacheSize    how many analysed positions are kept
+         */
+        public Analyst(int depth, int blunderPlies, int cacheSize) {
+            if (depth < 1 || blunderPlies < 0 || cacheSize < 1) {
+                throw new IllegalArgumentException("The analyst needs a depth and cache size of at least 1");
+            }
+            this.engine = new Engine(Engine.DEFAULT_TIME_MILLIS);
+            this.depth = depth;
+            this.blunderPlies = blunderPlies;
+            this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Analysis> eldest) {
+                    return size() > cacheSize;
+                }
+            };
+            this.turnLists = new TurnList[blunderPlies + 1];
+            for (int i = 0; i < this.turnLists.length; i++) {
+                this.turnLists[i] = new TurnList();
+            }
+        }
+
+        public long hits() {
+            return this.hits;
+        }
+
+        public long misses() {
+            return this.misses;
+        }
+
+        /**
+         * Analyses the turns available to a team, reusing the cached analysis of the
+         * position when it ranks enough turns exactly
+         * 
+         * @param game  the current game, which is left untouched
+         * @param team  the team to move
+         * @param hints how many of the best turns need exact scores
+         * @return the analysis of the position
+         */
+        public Analysis analyse(Game game, Team team, int hints) {
+            long key = game.board.hash(team);
+            Analysis analysis = this.cache.get(key);
+            if (analysis != null && analysis.ranked >= Math.min(hints, analysis.ranking.commands.length)) {
+                this.hits++;
+                return analysis;
+            }
+            this.misses++;
+            Engine.Ranking ranking = this.engine.rank(game, team, this.depth, hints);
+            int turns = ranking.commands.length;
+            int[] materialChange = new int[turns];
+            if (this.blunderPlies > 0) {
+                // Searched on a copy so the moves tried do not update the game's move cache
+                game = game.copy();
+                int before = materialBalance(game.board, team);
+                for (int i = 0; i < turns; i++) {
+                    for (int hop : ranking.hops[i]) {
+                        game.makeMove(hop);
+                    }
+                    materialChange[i] = -material(game, opponentOf(team), this.blunderPlies - 1, -Integer.MAX_VALUE,
+                            Integer.MAX_VALUE) - before;
+                    for (int j = 0; j < ranking.hops[i].length; j++) {
+                        game.unmakeMove();
+                    }
+                }
+            }
+            analysis = new Analysis(ranking, materialChange, hints, this.blunderPlies);
+            this.cache.put(key, analysis);
+            return analysis;
+        }
+
+        /**
+         * Lists the best turns for a team with their scores and any checkers they give
+         * up
+         * 
+         * @param game  the current game, which is left untouched
+         * @param team  the team to move
+         * @param hints how many turns to list
+         * @param out   where to print the hints
+         */
+        public void hint(Game game, Team team, int hints, PrintStream out) {
+            long misses = this.misses;
+            Analysis analysis = analyse(game, team, hints);
+            Engine.Ranking ranking = analysis.ranking;
+            if (ranking.commands.length == 0) {
+                out.println("The " + team + " team has no turn to play.");
+                return;
+            }
+            out.println("Best turns for the " + team + " team, searched to depth " + ranking.depth
+                    + (misses == this.misses ? " (cached):"
+                            : " in " + ranking.elapsedNanos / 1_000_000 + " ms (" + ranking.nodes + " nodes):"));
+            for (int i = 0; i < Math.min(hints, ranking.commands.length); i++) {
+                String line = (i + 1) + ". " + ranking.commands[i] + "  score " + ranking.scores[i];
+                int lost = analysis.checkersLost(i);
+                if (lost > 0) {
+                    line += ", " + lost + " checker" + (lost == 1 ? "" : "s") + " worse off within "
+                            + analysis.blunderPlies + " plies";
+                }
+                out.println(line);
+            }
+        }
+
+        /**
+         * Warns when a turn gives up checkers within the blunder plies that another
+         * turn would keep
+         * 
+         * @param game    the current game, which is left untouched
+         * @param team    the team to move
+         * @param command the turn about to be played, in the form a user would enter it
+         * @param out     where to print the warning
+         * @return set true if a warning was printed
+         */
+        public boolean checkTurn(Game game, Team team, String command, PrintStream out) {
+            if (this.blunderPlies == 0) {
+                return false;
+            }
+            Analysis analysis = analyse(game, team, DEFAULT_HINTS);
+            int turn = analysis.ranking.indexOf(command);
+            int lost = turn < 0 ? 0 : analysis.checkersLost(turn);
+            if (lost == 0) {
+                return false;
+            }
+            out.println("Warning: " + command + " leaves the " + team + " team " + lost + " checker"
+                    + (lost == 1 ? "" : "s") + " worse off within " + this.blunderPlies + " plies than "
+                    + analysis.keeper() + ".");
+            return true;
+        }
+
+        /*
+         * The material balance a team can be sure of after the given plies, with each
+         * team choosing turns for material alone. A team left without a turn has lost
+         * and is counted as having no checkers
+         */
+        private int material(Game game, Team team, int plies, int alpha, int beta) {
+            BitBoard board = game.board;
+            if (plies == 0 || game.isComplete) {
+                return materialBalance(board, team);
+            }
+            TurnList turns = this.turnLists[plies];
+            turns.generate(game, team);
+            if (turns.count == 0) {
+                return -board.pieceCount(opponentOf(team));
+            }
+            int best = -Integer.MAX_VALUE;
+            for (int i = 0; i < turns.count; i++) {
+                turns.make(game, i);
+                int score = -material(game, opponentOf(team), plies - 1, -beta, -alpha);
+                turns.unmake(game, i);
+                if (score > best) {
+                    best = score;
+                    if (score > alpha) {
+                        alpha = score;
+                        if (alpha >= beta) {
+                            break;
+                        }
+                    }
+                }
+            }
+            return best;
+        }
+
+        private static int materialBalance(BitBoard board, Team team) {
+            return board.pieceCount(team) - board.pieceCount(opponentOf(team));
+        }
+
+        /**
+         * The turns of one position ranked by the engine, with the change in material
+         * each leads to
+         */
+        public static class Analysis {
+            /*
+             * Every turn, best first
+             */
+            public final Engine.Ranking ranking;
+
+            /*
+             * The change in the material balance, in checkers, over the blunder plies
+             * after each ranked turn. All zero when blunders are not checked
+             */
+            public final int[] materialChange;
+
+            /*
+             * How many of the best turns have exact scores
+             */
+            public final int ranked;
+
+            /*
+             * The plies after each turn the material was searched to
+             */
+            public final int blunderPlies;
+
+            Analysis(Engine.Ranking ranking, int[] materialChange, int ranked, int blunderPlies) {
+                this.ranking = ranking;
+                this.materialChange = materialChange;
+                this.ranked = ranked;
+                this.blunderPlies = blunderPlies;
+            }
+
+            /**
+             * Counts the checkers a turn gives up that the turn keeping the most material
+             * would keep
+             * 
+             * @param turn the turn's position in the ranking
+             * @return 0 if no turn keeps more material
+             */
+            public int checkersLost(int turn) {
+                return this.materialChange[keeperIndex()] - this.materialChange[turn];
+            }
+
+            /**
+             * Finds the best ranked of the turns keeping the most material
+             * 
+             * @return the turn in the form a user would enter it
+             */
+            public String keeper() {
+                return this.ranking.commands[keeperIndex()];
+            }
+
+            private int keeperIndex() {
+                int keeper = 0;
+                for (int i = 1; i < this.materialChange.length; i++) {
+                    if (this.materialChange[i] > this.materialChange[keeper]) {
+                        keeper = i;
+                    }
+                }
+                return keeper;
+            }
+        }
+    }
+
+    /**
+     * Every turn available to a team in one position. Each turn is a run of packed
+     * moves in a shared buffer, with capture sequences listed before single moves and
+     * longer sequences before shorter ones. Under casual rules every prefix of a
+     * capture sequence is a turn of its own, since a checker may stop capturing at
+     * any point. Under standard rules only complete sequences are turns, and single
+     * moves are only listed when nothing can be captured.
+     */
+    static final class TurnList {
+        private int[] starts = new int[64];
+        private int[] lengths = new int[64];
+        private int[] ids = new int[64];
+        private int[] hopBuffer = new int[256];
+        private int count;
+        private int hopCount;
+        private int[] moves = new int[0];
+        private int[] chain = new int[16];
+        private final JumpTree jumpTree = new JumpTree();
+
+        void generate(Game game, Team team) {
+            this.count = 0;
+            this.hopCount = 0;
+            BitBoard board = game.board;
+            if (this.moves.length < board.maxMoves()) {
+                this.moves = board.newMoveBuffer();
+            }
+            boolean standard = game.rules == Rules.STANDARD;
+            int captureCount = board.generateMoves(team, true, this.moves);
+            // Chains are searched from each capturing square once, from the top left
+            for (int i = 0; i < captureCount; i++) {
+                this.moves[i] = BitBoard.moveFrom(this.moves[i]);
+            }
+            Arrays.sort(this.moves, 0, captureCount);
+            for (int i = 0; i < captureCount; i++) {
+                int square = this.moves[i];
+                if (i > 0 && square == this.moves[i - 1]) {
+                    continue;
+                }
+                this.jumpTree.generate(board, square, game.rules);
+                if (this.chain.length < this.jumpTree.size()) {
+                    this.chain = new int[this.jumpTree.size()];
+                }
+                for (int node = JumpTree.ROOT + 1; node < this.jumpTree.size(); node++) {
+                    if (!standard || this.jumpTree.isLeaf(node)) {
+                        add(this.chain, this.jumpTree.chain(node, this.chain));
+                    }
+                }
+            }
+            sortByLength();
+            if (standard && captureCount > 0) {
+                return;
+            }
+            int moveCount = board.generateMoves(team, false, this.moves);
+            for (int i = 0; i < moveCount; i++) {
+                this.chain[0] = this.moves[i];
+                add(this.chain, 1);
+            }
+        }
+
+        private void add(int[] hops, int length) {
+            if (this.count == this.starts.length) {
+                this.starts = Arrays.copyOf(this.starts, this.count * 2);
+                this.lengths = Arrays.copyOf(this.lengths, this.count * 2);
+                this.ids = Arrays.copyOf(this.ids, this.count * 2);
+            }
+            if (this.hopCount + length > this.hopBuffer.length) {
+                this.hopBuffer = Arrays.copyOf(this.hopBuffer, Math.max(this.hopBuffer.length * 2,
+                        this.hopCount + length));
+            }
+            System.arraycopy(hops, 0, this.hopBuffer, this.hopCount, length);
+            this.starts[this.count] = this.hopCount;
+            this.lengths[this.count] = length;
+            this.ids[this.count] = this.count;
+            this.hopCount += length;
+            this.count++;
+        }
+
+        /*
+         * Insertion sort of the turns found so far, which are few, keeping turns of
+         * equal length in the order they were found
+         */
+        private void sortByLength() {
+            for (int i = 1; i < this.count; i++) {
+                int start = this.starts[i];
+                int length = this.lengths[i];
+                int j = i - 1;
+                while (j >= 0 && this.lengths[j] < length) {
+                    this.starts[j + 1] = this.starts[j];
+                    this.lengths[j + 1] = this.lengths[j];
+                    j--;
+                }
+                this.starts[j + 1] = start;
+                this.lengths[j + 1] = length;
+            }
+            for (int i = 0; i < this.count; i++) {
+                this.ids[i] = i;
+            }
+        }
+
+        void moveToFront(int turn) {
+            int start = this.starts[turn];
+            int length = this.lengths[turn];
+            int id = this.ids[turn];
+            System.arraycopy(this.starts, 0, this.starts, 1, turn);
+            System.arraycopy(this.lengths, 0, this.lengths, 1, turn);
+            System.arraycopy(this.ids, 0, this.ids, 1, turn);
+            this.starts[0] = start;
+            this.lengths[0] = length;
+            this.ids[0] = id;
+        }
+
+        /*
+         * Gets the position a turn was generated in, which stays the same however the
+         * list is reordered and whenever the same board is generated again
+         */
+        int id(int turn) {
+            return this.ids[turn];
+        }
+
+        int count() {
+            return this.count;
+        }
+
+        int indexOf(int id) {
+            for (int i = 0; i < this.count; i++) {
+                if (this.ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void make(Game game, int turn) {
+            int start = this.starts[turn];
+            for (int i = 0; i < this.lengths[turn]; i++) {
+                game.makeMove(this.hopBuffer[start + i]);
+            }
+        }
+
+        void unmake(Game game, int turn) {
+            for (int i = 0; i < this.lengths[turn]; i++) {
+                game.unmakeMove();
+            }
+        }
+
+        int[] hops(int turn) {
+            return Arrays.copyOfRange(this.hopBuffer, this.starts[turn], this.starts[turn] + this.lengths[turn]);
+        }
+
+        int hop(int turn, int index) {
+            return this.hopBuffer[this.starts[turn] + index];
+        }
+
+        int length(int turn) {
+            return this.lengths[turn];
+        }
+
+        boolean isCapture(int turn) {
+            return BitBoard.isCapture(this.hopBuffer[this.starts[turn]]);
+        }
+
+        String toCommand(int turn, BitBoard board) {
+            return formatTurn(board, this.hopBuffer, this.starts[turn], this.lengths[turn]);
+        }
+    }
+
+    /**
+     * Scores positions from features of the pieces on the board, for labelling
+     * positions in bulk. Each feature is counted for both teams and reported as the
+     * difference, so positive values favour the team the position is scored for,
+     * and the score is the sum of the features times their weights.
+     * <p>
+     * Positions can be scored one at a time from a game of any size, or many at once
+     * from a {@link Batch} of packed boards. A batch holds its positions and features
+     * in primitive arrays, and each feature is extracted in its own loop over the
+     * batch, so the JIT can unroll the loops and vectorize the weighted sum.
+     */
+    public static class Evaluator {
+        /**
+         * The features of a position, with the weights used when none are loaded
+         */
+        public static enum Feature {
+            /*
+             * Checkers that are not kings
+             */
+            MATERIAL(100),
+            KINGS(150),
+            /*
+             * Checkers still on their own back row, keeping the other team from crowning
+             */
+            BACK_RANK(10),
+            /*
+             * Moves and captures available, counted as generateMoves lists them
+             */
+            MOBILITY(2),
+            /*
+             * Pieces on the middle half of the two middle rows
+             */
+            CENTER(5),
+            /*
+             * Checkers with no piece at all in the triangle of squares ahead of them up
+             * to the row where they are crowned
+             */
+            RUNAWAYS(30);
+
+            public final int defaultWeight;
+
+            Feature(int defaultWeight) {
+                this.defaultWeight = defaultWeight;
+            }
+
+            /**
+             * @return the name the feature's weight is given under in a weights file
+             */
+            public String key() {
+                return name().toLowerCase();
+            }
+        }
+
+        private static final Feature[] FEATURES = Feature.values();
+
+        private final int[] weights = new int[FEATURES.length];
+
+        /**
+         * Creates an evaluator using the default weights
+         */
+        public Evaluator() {
+            for (Feature feature : FEATURES) {
+                this.weights[feature.ordinal()] = feature.defaultWeight;
+            }
+        }
+
+        /**
+         * Reads weights from a file of {@code feature = weight} lines, such as
+         * {@code material = 100}. Features left out keep their default weight, and
+         * lines starting with {@code #} are comments
+         * 
+         * @param path the weights file
+         * @return an evaluator using the weights
+         * @throws IOException if the file cannot be read
+         */
+        public static Evaluator load(Path path) throws IOException {
+            Properties properties = new Properties();
+            try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                properties.load(in);
+            }
+            Evaluator evaluator = new Evaluator();
+            for (String key : properties.stringPropertyNames()) {
+                Feature feature;
+                try {
+                    feature = Feature.valueOf(key.trim().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown feature " + key + " in " + path);
+                }
+                evaluator.weights[feature.ordinal()] = Integer.parseInt(properties.getProperty(key).trim());
+            }
+            return evaluator;
+        }
+
+        public int weight(Feature feature) {
+            return this.weights[feature.ordinal()];
+        }
+
+        /**
+         * Scores a position
+         * 
+         * @param game the game holding the position
+         * @param team the team to score for
+         * @return positive scores favour the team
+         */
+        public int evaluate(Game game, Team team) {
+            return score(features(game, team, new int[FEATURES.length]));
+        }
+
+        /**
+         * Adds up weighted features
+         * 
+         * @param features the features of a position, indexed by feature ordinal
+         * @return the score
+         */
+        public int score(int[] features) {
+            int score = 0;
+            for (int i = 0; i < FEATURES.length; i++) {
+                score += this.weights[i] * features[i];
+            }
+            return score;
+        }
+
+        /**
+         * Extracts the features of a position
+         * 
+         * @param game the game holding the position
+         * @param team the team to count the features for
+         * @param out  the array to fill, indexed by feature ordinal
+         * @return the filled array
+         */
+        public static int[] features(Game game, Team team, int[] out) {
+            BitBoard board = game.board;
+            Geometry geometry = Geometry.of(board.boardSize);
+            if (board.isPacked()) {
+                long own = team == Team.RED ? board.red : board.black;
+                long opponents = team == Team.RED ? board.black : board.red;
+                for (Feature feature : FEATURES) {
+                    out[feature.ordinal()] = geometry.feature(feature, own, opponents, board.kings, team)
+                            - geometry.feature(feature, opponents, own, board.kings, opponentOf(team));
+                }
+                return out;
+            }
+            Arrays.fill(out, 0);
+            int[] squares = new int[board.boardSize * board.boardSize];
+            int[] moves = board.newMoveBuffer();
+            for (Team side : Team.values()) {
+                int sign = side == team ? 1 : -1;
+                int count = board.pieceSquares(side, squares);
+                for (int i = 0; i < count; i++) {
+                    int square = squares[i];
+                    if (board.isKing(square)) {
+                        out[Feature.KINGS.ordinal()] += sign;
+                    } else {
+                        out[Feature.MATERIAL.ordinal()] += sign;
+                        if (square / board.boardSize == geometry.backRow(side)) {
+                            out[Feature.BACK_RANK.ordinal()] += sign;
+                        }
+                        if (geometry.isRunaway(board, square, side)) {
+                            out[Feature.RUNAWAYS.ordinal()] += sign;
+                        }
+                    }
+                    if (geometry.isCenter(square)) {
+                        out[Feature.CENTER.ordinal()] += sign;
+                    }
+                }
+                out[Feature.MOBILITY.ordinal()] += sign
+                        * (board.generateMoves(side, false, moves) + board.generateMoves(side, true, moves));
+            }
+            return out;
+        }
+
+        /**
+         * Scores every position in a batch from red's point of view, filling the
+         * batch's features and scores
+         * 
+         * @param batch the positions to score
+         */
+        public void evaluate(Batch batch) {
+            Geometry geometry = Geometry.of(batch.boardSize);
+            BitBoard board = geometry.board;
+            int size = batch.size;
+            long[] red = batch.red;
+            long[] black = batch.black;
+            long[] kings = batch.kings;
+            int[] material = batch.features[Feature.MATERIAL.ordinal()];
+            int[] kingCounts = batch.features[Feature.KINGS.ordinal()];
+            int[] backRank = batch.features[Feature.BACK_RANK.ordinal()];
+            int[] mobility = batch.features[Feature.MOBILITY.ordinal()];
+            int[] center = batch.features[Feature.CENTER.ordinal()];
+            int[] runaways = batch.features[Feature.RUNAWAYS.ordinal()];
+            long redBackRow = geometry.backRowMask(Team.RED);
+            long blackBackRow = geometry.backRowMask(Team.BLACK);
+            long centerMask = geometry.centerMask;
+            for (int i = 0; i < size; i++) {
+                material[i] = Long.bitCount(red[i] & ~kings[i]) - Long.bitCount(black[i] & ~kings[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                kingCounts[i] = Long.bitCount(red[i] & kings[i]) - Long.bitCount(black[i] & kings[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                backRank[i] = Long.bitCount(red[i] & ~kings[i] & redBackRow)
+                        - Long.bitCount(black[i] & ~kings[i] & blackBackRow);
+            }
+            for (int i = 0; i < size; i++) {
+                center[i] = Long.bitCount(red[i] & centerMask) - Long.bitCount(black[i] & centerMask);
+            }
+            for (int i = 0; i < size; i++) {
+                mobility[i] = board.countMoves(red[i], black[i], kings[i], Team.RED)
+                        - board.countMoves(black[i], red[i], kings[i], Team.BLACK);
+            }
+            for (int i = 0; i < size; i++) {
+                runaways[i] = geometry.runaways(red[i], black[i], kings[i], Team.RED)
+                        - geometry.runaways(black[i], red[i], kings[i], Team.BLACK);
+            }
+            int[] scores = batch.scores;
+            Arrays.fill(scores, 0, size, 0);
+            for (int f = 0; f < FEATURES.length; f++) {
+                int weight = this.weights[f];
+                int[] values = batch.features[f];
+                for (int i = 0; i < size; i++) {
+                    scores[i] += weight * values[i];
+                }
+            }
+        }
+
+        /**
+         * Positions on packed boards of one size, laid out as one array per mask and
+         * one per feature
+         */
+        public static class Batch {
+            public final int boardSize;
+            public final long[] red;
+            public final long[] black;
+            public final long[] kings;
+
+            /*
+             * Red's features minus black's, indexed by feature ordinal and then position
+             */
+            public final int[][] features;
+
+            /*
+             * The score of each position from red's point of view
+             */
+            public final int[] scores;
+
+            /*
+             * The number of positions held
+             */
+            public int size;
+
+            /**
+             * @param boardSize the length and width of the boards, up to
+             *                  {@link BitBoard#MAX_PACKED_SIZE}
+             * @param capacity  the most positions the batch can hold
+             */
+            public Batch(int boardSize, int capacity) {
+                if (boardSize > BitBoard.MAX_PACKED_SIZE) {
+                    throw new IllegalArgumentException(
+                            "Batches hold boards up to " + BitBoard.MAX_PACKED_SIZE + " squares wide");
+                }
+                this.boardSize = boardSize;
+                this.red = new long[capacity];
+                this.black = new long[capacity];
+                this.kings = new long[capacity];
+                this.features = new int[FEATURES.length][capacity];
+                this.scores = new int[capacity];
+            }
+
+            /**
+             * Copies a position into the batch
+             * 
+             * @param board a board of the batch's size
+             * @return the index of the position in the batch
+             */
+            public int add(BitBoard board) {
+                if (board.boardSize != this.boardSize) {
+                    throw new IllegalArgumentException("Cannot add a board of a different size");
+                }
+                this.red[this.size] = board.red;
+                this.black[this.size] = board.black;
+                this.kings[this.size] = board.kings;
+                return this.size++;
+            }
+
+            public boolean isFull() {
+                return this.size == this.red.length;
+            }
+
+            public void clear() {
+                this.size = 0;
+            }
+        }
+
+        /**
+         * The masks and tables the features of one board size are counted with,
+         * built once per size
+         */
+        private static final class Geometry {
+            private static final Geometry[] CACHE = new Geometry[BitBoard.MAX_BOARD_SIZE + 1];
+
+            final int boardSize;
+
+            /*
+             * An empty board, used for its move masks
+             */
+            final BitBoard board;
+
+            /*
+             * The middle half of the two middle rows, empty on boards too wide for masks
+             */
+            final long centerMask;
+
+            /*
+             * The row each team starts from, indexed by team ordinal, empty on boards too
+             * wide for masks
+             */
+            final long[] backRows = new long[2];
+
+            /*
+             * On packed boards, for each team and square, the triangle of squares ahead
+             * of a checker on that square up to the row where it is crowned
+             */
+            final long[][] cones;
+
+            private Geometry(int boardSize) {
+                this.boardSize = boardSize;
+                this.board = new BitBoard(boardSize);
+                long center = 0L;
+                this.cones = new long[2][];
+                if (this.board.isPacked()) {
+                    for (int square = 0; square < boardSize * boardSize; square++) {
+                        if (isCenter(square)) {
+                            center |= 1L << square;
+                        }
+                    }
+                    for (Team team : Team.values()) {
+                        for (int x = 0; x < boardSize; x++) {
+                            this.backRows[team.ordinal()] |= 1L << (backRow(team) * boardSize + x);
+                        }
+                        long[] cones = new long[boardSize * boardSize];
+                        for (int square = 0; square < cones.length; square++) {
+                            for (int ahead = 0; ahead < cones.length; ahead++) {
+                                if (inCone(square, ahead, team)) {
+                                    cones[square] |= 1L << ahead;
+                                }
+                            }
+                        }
+                        this.cones[team.ordinal()] = cones;
+                    }
+                }
+                this.centerMask = center;
+            }
+
+            static synchronized Geometry of(int boardSize) {
+                if (CACHE[boardSize] == null) {
+                    CACHE[boardSize] = new Geometry(boardSize);
+                }
+                return CACHE[boardSize];
+            }
+
+            int backRow(Team team) {
+                return team == Team.RED ? this.boardSize - 1 : 0;
+            }
+
+            long backRowMask(Team team) {
+                return this.backRows[team.ordinal()];
+            }
+
+            boolean isCenter(int square) {
+                int x = square % this.boardSize;
+                int y = square / this.boardSize;
+                int margin = this.boardSize / 4;
+                return y >= this.boardSize / 2 - 1 && y <= this.boardSize / 2 && x >= margin
+                        && x < this.boardSize - margin;
+            }
+
+            /*
+             * Checks if a square lies in the triangle ahead of a checker. Red checkers
+             * travel up the board and black checkers down
+             */
+            boolean inCone(int square, int ahead, Team team) {
+                int rows = team == Team.RED ? square / this.boardSize - ahead / this.boardSize
+                        : ahead / this.boardSize - square / this.boardSize;
+                return rows > 0 && Math.abs(ahead % this.boardSize - square % this.boardSize) <= rows;
+            }
+
+            boolean isRunaway(BitBoard board, int square, Team team) {
+                for (int ahead = 0; ahead < this.boardSize * this.boardSize; ahead++) {
+                    if (board.isOccupied(ahead) && inCone(square, ahead, team)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            int runaways(long own, long opponents, long kings, Team team) {
+                long[] cones = this.cones[team.ordinal()];
+                long occupied = own | opponents;
+                long men = own & ~kings;
+                int count = 0;
+                while (men != 0L) {
+                    int square = Long.numberOfTrailingZeros(men);
+                    men &= men - 1;
+                    if ((cones[square] & occupied) == 0L) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+
+            /*
+             * Counts one feature for one team of a packed position
+             */
+            int feature(Feature feature, long own, long opponents, long kings, Team team) {
+                switch (feature) {
+                    case MATERIAL:
+                        return Long.bitCount(own & ~kings);
+                    case KINGS:
+                        return Long.bitCount(own & kings);
+                    case BACK_RANK:
+                        return Long.bitCount(own & ~kings & backRowMask(team));
+                    case MOBILITY:
+                        return this.board.countMoves(own, opponents, kings, team);
+                    case CENTER:
+                        return Long.bitCount(own & this.centerMask);
+                    default:
+                        return runaways(own, opponents, kings, team);
+                }
+            }
+        }
+    }
+
+    /**
+     * A fixed size cache of search results keyed by position. Each entry is a pair of
+     * longs, the key then the data, side by side in one primitive array so a lookup
+     * touches a single cache line, and the table never grows past the memory it is
+     * given.
+     * Entries are written as the key mixed with the data, which lets a reader spot
+     * an entry torn by a concurrent write and treat it as missing.
+     */
+    public static class TranspositionTable {
+        /*
+         * How an entry for a new position decides whether to replace the entry already
+         * in its slot
+         */
+        public static enum ReplacementPolicy {
+            /*
+             * The newest result always replaces the old one
+             */
+            ALWAYS,
+            /*
+             * Deeper results from the current search are kept over shallower ones, while
+             * anything left from an earlier search is replaced
+             */
+            DEPTH_PREFERRED
+        }
+
+        /*
+         * How a stored score relates to the true score of the position
+         */
+        public static final int EXACT = 0;
+        public static final int LOWER_BOUND = 1;
+        public static final int UPPER_BOUND = 2;
+
+        /*
+         * Returned by a probe that finds nothing, and stored when there is no best turn
+         */
+        public static final long MISS = 0L;
+        public static final int NO_TURN = 0xFFFF;
+
+        private static final int ENTRY_BYTES = 16;
+
+        /*
+         * Entry data is packed as the score in the low 32 bits, then 8 bits of depth, 2
+         * of bound, 16 for the best turn, 5 for the age of the search and a bit marking
+         * the entry as used
+         */
+        private static final int DEPTH_SHIFT = 32;
+        private static final int BOUND_SHIFT = 40;
+        private static final int TURN_SHIFT = 42;
+        private static final int AGE_SHIFT = 58;
+        private static final long USED = 1L << 63;
+        private static final int AGES = 32;
+
+        private final long[] entries;
+        private final int mask;
+        private final ReplacementPolicy policy;
+        private int age;
+
+        /**
+         * Creates a table using at most the given amount of memory. The entry count is
+         * rounded down to a power of two
+         * 
+         * @param megabytes the memory to use, at least 1
+         * @param policy    how new entries replace old ones
+         */
+        public TranspositionTable(int megabytes, ReplacementPolicy policy) {
+            if (megabytes < 1) {
+                throw new IllegalArgumentException("The transposition table needs at least 1 MB");
+            }
+            long entries = Long.highestOneBit(((long) megabytes << 20) / ENTRY_BYTES);
+            int capacity = (int) Math.min(entries, 1 << 30);
+            this.entries = new long[2 * capacity];
+            this.mask = capacity - 1;
+            this.policy = policy;
+        }
+
+        public int capacity() {
+            return this.entries.length / 2;
+        }
+
+        /**
+         * Marks the start of a new search, so entries from earlier searches can be
+         * recognised as stale
+         */
+        public void newSearch() {
+            this.age = (this.age + 1) % AGES;
+        }
+
+        public void clear() {
+            Arrays.fill(this.entries, 0L);
+        }
+
+        /**
+         * Looks up the entry for a position
+         * 
+         * @param key the position key
+         * @return the packed entry, or {@link #MISS} if the position is not stored
+         */
+        public long probe(long key) {
+            int slot = ((int) key & this.mask) << 1;
+            long entry = this.entries[slot + 1];
+            if (entry != MISS && (this.entries[slot] ^ entry) == key) {
+                return entry;
+            }
+            return MISS;
+        }
+
+        /**
+         * Stores the result of searching a position, unless the replacement policy
+         * prefers the entry already in its slot
+         * 
+         * @param key   the position key
+         * @param depth the depth the position was searched to
+         * @param bound how the score relates to the true score
+         * @param score the score found
+         * @param turn  the best turn found, or {@link #NO_TURN}
+         */
+        public void store(long key, int depth, int bound, int score, int turn) {
+            int slot = ((int) key & this.mask) << 1;
+            long existing = this.entries[slot + 1];
+            if (this.policy == ReplacementPolicy.DEPTH_PREFERRED && existing != MISS
+                    && (this.entries[slot] ^ existing) != key
+                    && (int) ((existing >>> AGE_SHIFT) & (AGES - 1)) == this.age
+                    && depth(existing) > depth) {
+                return;
+            }
+            long entry = (score & 0xFFFFFFFFL)
+                    | ((long) Math.min(depth, 0xFF) << DEPTH_SHIFT)
+                    | ((long) bound << BOUND_SHIFT)
+                    | ((long) (turn & 0xFFFF) << TURN_SHIFT)
+                    | ((long) this.age << AGE_SHIFT)
+                    | USED;
+            this.entries[slot] = key ^ entry;
+            this.entries[slot + 1] = entry;
+        }
+
+        public static int score(long entry) {
+            return (int) entry;
+        }
+
+        public static int depth(long entry) {
+            return (int) ((entry >>> DEPTH_SHIFT) & 0xFF);
+        }
+
+        public static int bound(long entry) {
+            return (int) ((entry >>> BOUND_SHIFT) & 0x3);
+        }
+
+        public static int turn(long entry) {
+            return (int) ((entry >>> TURN_SHIFT) & 0xFFFF);
+        }
+    }
+
+    /**
+     * Reads and writes positions in the FEN notation of Portable Draughts Notation,
+     * for example {@code W:W21,22,K23:B1,2,3}. The first field is the team to move
+     * and the others list the squares of each team, with kings marked by a K. Red
+     * plays the white pieces. Only the dark squares are numbered, row by row from the
+     * top of the board and from right to left within each row, which matches the
+     * standard numbering of an 8x8 board.
+     */
+    public static class Fen {
+        /*
+         * The opening position of a standard game with red to move
+         */
+        public static final String STANDARD_START = "W:W21,22,23,24,25,26,27,28,29,30,31,32:B1,2,3,4,5,6,7,8,9,10,11,12";
+
+        /**
+         * Builds a standard size game from a position
+         * 
+         * @param fen the position to load
+         * @return a game holding the pieces of the position
+         */
+        public static Game parse(String fen) {
+            return parse(fen, 8);
+        }
+
+        /**
+         * Builds a game from a position
+         * 
+         * @param fen       the position to load
+         * @param boardSize the size of the board, which must be even
+         * @return a game holding the pieces of the position
+         */
+        public static Game parse(String fen, int boardSize) {
+            Game game = new Game(boardSize);
+            String[] fields = fields(fen);
+            for (int i = 1; i < fields.length; i++) {
+                String field = fields[i].trim();
+                if (field.isEmpty()) {
+                    continue;
+                }
+                Team team = teamOf(field.charAt(0), fen);
+                for (String piece : field.substring(1).split(",")) {
+                    piece = piece.trim();
+                    if (piece.isEmpty()) {
+                        continue;
+                    }
+                    boolean isKing = piece.charAt(0) == 'K' || piece.charAt(0) == 'k';
+                    String numbers = isKing ? piece.substring(1) : piece;
+                    int dash = numbers.indexOf('-');
+                    int first = parseNumber(dash < 0 ? numbers : numbers.substring(0, dash), fen);
+                    int last = dash < 0 ? first : parseNumber(numbers.substring(dash + 1), fen);
+                    for (int number = first; number <= last; number++) {
+                        game.board.place(squareOf(number, boardSize), team, isKing);
+                    }
+                }
+            }
+            return game;
+        }
+
+        /**
+         * Reads the team to move from a position
+         * 
+         * @param fen the position
+         * @return the team to move
+         */
+        public static Team sideToMove(String fen) {
+            return teamOf(fields(fen)[0].trim().charAt(0), fen);
+        }
+
+        /**
+         * Writes the pieces of a game as a position
+         * 
+         * @param game       the game to describe
+         * @param sideToMove the team to move next
+         * @return the position in FEN notation
+         */
+        public static String format(Game game, Team sideToMove) {
+            StringBuilder fen = new StringBuilder();
+            append(fen, game, sideToMove);
+            return fen.toString();
+        }
+
+        /**
+         * Writes the pieces of a game as a position onto the end of a buffer
+         * 
+         * @param fen        the buffer to write to
+         * @param game       the game to describe
+         * @param sideToMove the team to move next
+         */
+        public static void append(StringBuilder fen, Game game, Team sideToMove) {
+            fen.append(sideToMove == Team.RED ? 'W' : 'B');
+            appendTeam(fen, game.board, Team.RED, 'W');
+            appendTeam(fen, game.board, Team.BLACK, 'B');
+        }
+
+        private static void appendTeam(StringBuilder fen, BitBoard board, Team team, char colour) {
+            fen.append(':').append(colour);
+            int squaresPerRow = board.boardSize / 2;
+            int written = 0;
+            for (int number = 1; number <= squaresPerRow * board.boardSize; number++) {
+                int square = squareOf(number, board.boardSize);
+                if (board.teamAt(square) == team) {
+                    if (written > 0) {
+                        fen.append(',');
+                    }
+                    if (board.isKing(square)) {
+                        fen.append('K');
+                    }
+                    fen.append(number);
+                    written++;
+                }
+            }
+            if (written != board.pieceCount(team)) {
+                throw new IllegalArgumentException("Checkers on light squares cannot be written as FEN");
+            }
+        }
+
+        /**
+         * Finds the board square for a numbered dark square
+         * 
+         * @param number    the dark square number, starting from 1
+         * @param boardSize the size of the board
+         * @return the square index
+         */
+        public static int squareOf(int number, int boardSize) {
+            int squaresPerRow = boardSize / 2;
+            if (boardSize % 2 != 0 || number < 1 || number > squaresPerRow * boardSize) {
+                throw new IllegalArgumentException("There is no square " + number + " on a board of size " + boardSize);
+            }
+            int y = (number - 1) / squaresPerRow;
+            int column = (number - 1) % squaresPerRow;
+            // Numbering runs right to left, landing on the dark squares where x + y is even
+            int x = y % 2 == 1 ? boardSize - 1 - 2 * column : boardSize - 2 - 2 * column;
+            return y * boardSize + x;
+        }
+
+        /**
+         * Finds the number of a dark square
+         * 
+         * @param square    the square index
+         * @param boardSize the size of the board
+         * @return the dark square number, starting from 1
+         */
+        public static int numberOf(int square, int boardSize) {
+            int x = square % boardSize;
+            int y = square / boardSize;
+            return y * (boardSize / 2) + (boardSize - 1 - x) / 2 + 1;
+        }
+
+        private static String[] fields(String fen) {
+            String[] fields = fen.trim().split(":");
+            if (fields[0].trim().isEmpty()) {
+                throw new IllegalArgumentException("The position " + fen + " does not name a team to move");
+            }
+            return fields;
+        }
+
+        private static Team teamOf(char colour, String fen) {
+            switch (Character.toUpperCase(colour)) {
+                case 'W':
+                    return Team.RED;
+                case 'B':
+                    return Team.BLACK;
+                default:
+                    throw new IllegalArgumentException("Unrecognized colour " + colour + " in position " + fen);
+            }
+        }
+
+        private static int parseNumber(String number, String fen) {
+            try {
+                return Integer.parseInt(number.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Unrecognized square " + number + " in position " + fen);
+            }
+        }
+    }
+
+    /**
+     * Counts the positions reachable from a position in a fixed number of turns.
+     * Comparing the counts against known values checks the move generation, and the
+     * time taken measures its speed. Under casual rules a turn is any move or capture
+     * sequence, including sequences stopped part way, and a team with no turns
+     * passes. Under standard rules a team with no turns has lost, so nothing is
+     * reachable below it.
+     */
+    public static class Perft {
+        private final TurnList[] turnLists = new TurnList[Engine.MAX_PLY + 1];
+        private Game game;
+
+        /**
+         * Counts the positions reachable in exactly the given number of turns
+         * 
+         * @param game  the starting position, which is restored before this returns
+         * @param team  the team to move first
+         * @param depth the number of turns to play
+         * @return the number of positions at that depth
+         */
+        public long count(Game game, Team team, int depth) {
+            if (depth > Engine.MAX_PLY) {
+                throw new IllegalArgumentException("Perft depth cannot exceed " + Engine.MAX_PLY);
+            }
+            this.game = game;
+            long nodes = perft(team, depth, 0);
+            this.game = null;
+            return nodes;
+        }
+
+        private long perft(Team team, int depth, int ply) {
+            if (depth == 0 || this.game.isComplete) {
+                return 1;
+            }
+            TurnList turns = this.turnLists[ply];
+            if (turns == null) {
+                turns = new TurnList();
+                this.turnLists[ply] = turns;
+            }
+            turns.generate(this.game, team);
+            if (turns.count == 0) {
+                return this.game.rules == Rules.STANDARD ? 0 : perft(opponentOf(team), depth - 1, ply + 1);
+            }
+            if (depth == 1) {
+                return turns.count;
+            }
+            long nodes = 0;
+            for (int i = 0; i < turns.count; i++) {
+                turns.make(this.game, i);
+                nodes += perft(opponentOf(team), depth - 1, ply + 1);
+                turns.unmake(this.game, i);
+            }
+            return nodes;
+        }
+
+        /**
+         * Counts the positions below each turn available from a position, counting
+         * each turn's subtree on a fork-join pool
+         * 
+         * @param game    the starting position, which is left unchanged
+         * @param team    the team to move first
+         * @param depth   the number of turns to play, at least 1
+         * @param threads the number of threads to count with
+         * @return the count for each root turn and the total
+         */
+        public static Division divide(Game game, Team team, int depth, int threads) {
+            long start = System.nanoTime();
+            TurnList rootTurns = new TurnList();
+            rootTurns.generate(game, team);
+            Division division = new Division();
+            if (rootTurns.count == 0 && game.rules == Rules.STANDARD) {
+                division.turns = new String[0];
+                division.counts = new long[0];
+            } else if (rootTurns.count == 0) {
+                division.turns = new String[] { "s" };
+                division.counts = new long[] { new Perft().count(game.copy(), opponentOf(team), depth - 1) };
+            } else {
+                division.turns = new String[rootTurns.count];
+                division.counts = new long[rootTurns.count];
+                List<ForkJoinTask<Long>> tasks = new ArrayList<>();
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    for (int i = 0; i < rootTurns.count; i++) {
+                        division.turns[i] = rootTurns.toCommand(i, game.board);
+                        Game child = game.copy();
+                        rootTurns.make(child, i);
+                        tasks.add(pool.submit(() -> new Perft().count(child, opponentOf(team), depth - 1)));
+                    }
+                    for (int i = 0; i < tasks.size(); i++) {
+                        division.counts[i] = tasks.get(i).join();
+                    }
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            for (long count : division.counts) {
+                division.nodes += count;
+            }
+            division.elapsedNanos = System.nanoTime() - start;
+            return division;
+        }
+
+        /**
+         * The counts below each turn from a position
+         */
+        public static class Division {
+            /*
+             * Each root turn, in the same form a user would enter it
+             */
+            public String[] turns;
+
+            /*
+             * The number of positions below each root turn
+             */
+            public long[] counts;
+
+            /*
+             * The total number of positions counted
+             */
+            public long nodes;
+
+            /*
+             * The wall clock time the count took
+             */
+            public long elapsedNanos;
+
+            public long nodesPerSecond() {
+                return this.elapsedNanos == 0 ? 0 : this.nodes * 1_000_000_000L / this.elapsedNanos;
+            }
+        }
+    }
+
+    /**
+     * Plays scripted games at full speed, without drawing the board, listing moves or
+     * prompting. A script holds what the console game reads: the team to start on
+     * the first line, then one turn per line in the interactive grammar. Blank lines
+     * and lines starting with {@code #} are ignored. Play stops at the first turn the
+     * console game would reject, at a turn moving a checker of the team not on turn,
+     * and at any turn after the game was won or drawn.
+     * <p>
+     * A script player reuses its game and message buffer for every script, so each
+     * thread needs its own.
+     */
+    public static class Script {
+        private final Game game;
+
+        /*
+         * Catches the messages the console would print for a turn, so a rejected turn
+         * can be explained
+         */
+        private final ByteArrayOutputStream turnOutput = new ByteArrayOutputStream();
+        private final PrintStream turnSink = new PrintStream(turnOutput, false, StandardCharsets.US_ASCII);
+
+        /**
+         * @param boardSize the length and width of the board the scripts play on
+         * @param rules     the rules turns are checked against
+         */
+        public Script(int boardSize, Rules rules) {
+            this.game = new Game(boardSize);
+            this.game.setUp();
+            this.game.rules = rules;
+        }
+
+        /**
+         * The outcome of playing one script
+         */
+        public static class Result {
+            public final String name;
+
+            /*
+             * The number of turns played, including skipped turns
+             */
+            public int plies;
+
+            /*
+             * How the game ended, or null when the script ended before the game did
+             */
+            public GameResult ending;
+
+            /*
+             * The team that won, or null for a draw or an unfinished game
+             */
+            public Team winner;
+
+            /*
+             * The team to play after the last legal turn
+             */
+            public Team nextTeam;
+
+            /*
+             * Why play stopped early, or null when every turn was legal. The ply counts
+             * from 1 and is 0 when the starting team could not be read
+             */
+            public String reason;
+            public int illegalPly;
+            public int illegalLine;
+            public String illegalTurn;
+
+            public Result(String name) {
+                this.name = name;
+            }
+
+            public boolean isLegal() {
+                return this.reason == null;
+            }
+
+            /**
+             * @return one line describing the outcome
+             */
+            public String describe() {
+                if (!isLegal()) {
+                    return String.format("%s: illegal turn at ply %d (line %d) \"%s\": %s", this.name,
+                            this.illegalPly, this.illegalLine, this.illegalTurn, this.reason);
+                }
+                if (this.winner != null) {
+                    return String.format("%s: %d plies, %s won %s", this.name, this.plies, this.winner,
+                            this.ending.description);
+                }
+                if (this.ending != null) {
+                    return String.format("%s: %d plies, drawn %s", this.name, this.plies, this.ending.description);
+                }
+                return String.format("%s: %d plies, %s to move", this.name, this.plies, this.nextTeam);
+            }
+        }
+
+        /**
+         * Plays a script from the standard opening
+         * 
+         * @param name what to call the script in its result
+         * @param in   the script
+         * @return how far the script got
+         * @throws IOException if the script cannot be read
+         */
+        public Result play(String name, BufferedReader in) throws IOException {
+            Result result = new Result(name);
+            try {
+                String line;
+                int lineNumber = 0;
+                while ((line = in.readLine()) != null) {
+                    lineNumber++;
+                    String turn = line.trim();
+                    if (turn.isEmpty() || turn.startsWith("#")) {
+                        continue;
+                    }
+                    if (result.nextTeam == null) {
+                        try {
+                            result.nextTeam = Team.valueOf(turn.toUpperCase());
+                        } catch (IllegalArgumentException e) {
+                            reject(result, lineNumber, turn, "the first line must name the team to start");
+                            return result;
+                        }
+                    } else if (!playTurn(result, lineNumber, turn)) {
+                        return result;
+                    }
+                }
+                if (result.nextTeam == null) {
+                    reject(result, lineNumber, "", "the script does not name the team to start");
+                }
+                return result;
+            } finally {
+                this.game.rewind();
+            }
+        }
+
+        /*
+         * Plays one turn, recording the reason when it is illegal
+         */
+        private boolean playTurn(Result result, int lineNumber, String turn) {
+            if (this.game.isComplete) {
+                reject(result, lineNumber, turn, "the game is over");
+                return false;
+            }
+            this.turnOutput.reset();
+            if (!executeTurn(this.game, result.nextTeam, new StringTokenizer(turn), this.turnSink)) {
+                this.turnSink.flush();
+                String message = this.turnOutput.toString(StandardCharsets.US_ASCII).trim();
+                reject(result, lineNumber, turn, message.isEmpty() ? "the move could not be executed" : message);
+                return false;
+            }
+            result.plies++;
+            result.nextTeam = opponentOf(result.nextTeam);
+            this.game.endTurn(result.nextTeam);
+            result.ending = this.game.result;
+            result.winner = this.game.winner;
+            return true;
+        }
+
+        private void reject(Result result, int lineNumber, String turn, String reason) {
+            result.illegalPly = result.plies + (result.nextTeam == null ? 0 : 1);
+            result.illegalLine = lineNumber;
+            result.illegalTurn = turn;
+            result.reason = reason;
+        }
+
+        /**
+         * Plays every file in a directory, spreading the files over a pool of threads
+         * 
+         * @param directory the directory holding the scripts
+         * @param boardSize the length and width of the board the scripts play on
+         * @param rules     the rules turns are checked against
+         * @param threads   the number of threads to play them on
+         * @return the result of each script, ordered by file name
+         * @throws IOException if the directory cannot be listed
+         */
+        public static List<Result> playAll(Path directory, int boardSize, Rules rules, int threads)
+                throws IOException {
+            List<Path> scripts;
+            try (Stream<Path> files = Files.list(directory)) {
+                scripts = files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+            Result[] results = new Result[scripts.size()];
+            AtomicLong nextScript = new AtomicLong();
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(() -> {
+                    Script player = new Script(boardSize, rules);
+                    int index;
+                    while ((index = (int) nextScript.getAndIncrement()) < results.length) {
+                        Path script = scripts.get(index);
+                        try (BufferedReader in = Files.newBufferedReader(script, StandardCharsets.UTF_8)) {
+                            results[index] = player.play(script.getFileName().toString(), in);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            try {
+                for (Future<?> worker : workers) {
+                    worker.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Playing the scripts was interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("A script thread failed", e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+            return Arrays.asList(results);
+        }
+    }
+
+    /**
+     * Plays many games between two policies without any console output, spreading
+     * the games over a pool of threads. Each game is seeded from its number, so the
+     * results are the same however many threads play them. Games that reach the ply
+     * limit are scored as draws, like games drawn by repetition or by the no progress
+     * rule.
+     */
+    public static class Simulator {
+        /*
+         * The width of each bucket of the game length histogram, in plies
+         */
+        private static final int HISTOGRAM_BUCKET = 10;
+
+        /**
+         * Chooses the turn a team plays
+         */
+        public interface Policy {
+            /**
+             * @param game   the current game, which must be left unchanged
+             * @param team   the team to move
+             * @param turns  every turn available to the team, at least one
+             * @param random the source of randomness for the current game
+             * @return the index of the chosen turn
+             */
+            int choose(Game game, Team team, TurnList turns, SplittableRandom random);
+        }
+
+        /**
+         * The built in policies
+         */
+        public static enum PolicyType {
+            /*
+             * Plays any available turn with equal chance
+             */
+            RANDOM,
+            /*
+             * Plays the turn capturing the most checkers, choosing randomly between equals
+             * and between moves when nothing can be captured
+             */
+            GREEDY,
+            /*
+             * Plays the engine's choice from a fixed depth search
+             */
+            ENGINE;
+
+            /**
+             * Creates a policy for one thread to use
+             * 
+             * @param engineDepth the search depth of the engine policy
+             * @return the policy
+             */
+            Policy create(int engineDepth) {
+                switch (this) {
+                    case RANDOM:
+                        return (game, team, turns, random) -> random.nextInt(turns.count);
+                    case GREEDY:
+                        return (game, team, turns, random) -> {
+                            if (!turns.isCapture(0)) {
+                                return random.nextInt(turns.count);
+                            }
+                            // Turns are listed longest capture first
+                            int equals = 1;
+                            while (equals < turns.count && turns.isCapture(equals)
+                                    && turns.length(equals) == turns.length(0)) {
+                                equals++;
+                            }
+                            return random.nextInt(equals);
+                        };
+                    default:
+                        Engine engine = new Engine(Engine.DEFAULT_TIME_MILLIS, 1,
+                                TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED, 1);
+                        return (game, team, turns, random) -> turns
+                                .indexOf(engine.searchToDepth(game, team, engineDepth).turn);
+                }
+            }
+        }
+
+        private final PolicyType redPolicy;
+        private final PolicyType blackPolicy;
+        private final int maxPlies;
+        private final int engineDepth;
+        private final long seed;
+
+        /*
+         * The game log every finished game is appended to, null when games are not
+         * recorded
+         */
+        private OutputStream log;
+
+        private Rules rules = Rules.CASUAL;
+
+        /**
+         * @param redPolicy   how red chooses its turns
+         * @param blackPolicy how black chooses its turns
+         * @param maxPlies    the length at which a game is abandoned as a draw
+         * @param engineDepth the search depth of the engine policy
+         * @param seed        the seed all game seeds are derived from
+         */
+        public Simulator(PolicyType redPolicy, PolicyType blackPolicy, int maxPlies, int engineDepth, long seed) {
+            this.redPolicy = redPolicy;
+            this.blackPolicy = blackPolicy;
+            this.maxPlies = maxPlies;
+            this.engineDepth = engineDepth;
+            this.seed = seed;
+        }
+
+        /**
+         * Records every game played from now on
+         * 
+         * @param log the game log to append records to, shared by every thread
+         */
+        public void recordTo(OutputStream log) {
+            this.log = log;
+        }
+
+        /**
+         * Plays every game from now on under the given rules
+         * 
+         * @param rules the rules turns are generated under
+         */
+        public void useRules(Rules rules) {
+            this.rules = rules;
+        }
+
+        /**
+         * Plays a batch of games. Red starts the even numbered games and black the odd
+         * numbered ones
+         * 
+         * @param games   the number of games to play
+         * @param threads the number of threads to play them on
+         * @return the combined statistics of every game
+         */
+        public Stats run(long games, int threads) {
+            long start = System.nanoTime();
+            AtomicLong nextGame = new AtomicLong();
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<Stats>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(() -> play(nextGame, games)));
+            }
+            Stats total = new Stats(this.maxPlies);
+            try {
+                for (Future<Stats> worker : workers) {
+                    total.add(worker.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("The simulation was interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("A simulation thread failed", e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+            total.elapsedNanos = System.nanoTime() - start;
+            return total;
+        }
+
+        /*
+         * Plays games on one thread until every game has been claimed. The game and turn
+         * list are reused, rewinding the game after each one
+         */
+        private Stats play(AtomicLong nextGame, long games) throws IOException {
+            Stats stats = new Stats(this.maxPlies);
+            // Each game is encoded on its own thread, then appended to the log whole
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            GameRecord.LogWriter recorder = this.log == null ? null : new GameRecord.LogWriter(encoded);
+            Game game = new Game();
+            game.rules = this.rules;
+            TurnList turns = new TurnList();
+            Policy[] policies = new Policy[2];
+            policies[Team.RED.ordinal()] = this.redPolicy.create(this.engineDepth);
+            policies[Team.BLACK.ordinal()] = this.blackPolicy.create(this.engineDepth);
+            long index;
+            while ((index = nextGame.getAndIncrement()) < games) {
+                SplittableRandom random = new SplittableRandom(this.seed + index);
+                Team team = index % 2 == 0 ? Team.RED : Team.BLACK;
+                int plies = 0;
+                if (recorder != null) {
+                    recorder.begin(game, team);
+                }
+                while (!game.isComplete && plies < this.maxPlies) {
+                    turns.generate(game, team);
+                    if (turns.count > 0) {
+                        int turn = policies[team.ordinal()].choose(game, team, turns, random);
+                        turns.make(game, turn);
+                        if (recorder != null) {
+                            for (int i = 0; i < turns.length(turn); i++) {
+                                recorder.hop(turns.hop(turn, i));
+                            }
+                        }
+                    }
+                    if (recorder != null) {
+                        recorder.endTurn();
+                    }
+                    team = opponentOf(team);
+                    game.endTurn(team);
+                    plies++;
+                }
+                stats.record(game.winner, plies);
+                if (recorder != null) {
+                    recorder.end();
+                    synchronized (this.log) {
+                        encoded.writeTo(this.log);
+                    }
+                    encoded.reset();
+                }
+                game.rewind();
+            }
+            return stats;
+        }
+
+        /**
+         * The combined results of a batch of games
+         */
+        public static class Stats {
+            public long redWins;
+            public long blackWins;
+            public long draws;
+            public long totalPlies;
+
+            /*
+             * The number of games ending in each range of plies
+             */
+            public final long[] lengthHistogram;
+
+            /*
+             * The wall clock time the batch took
+             */
+            public long elapsedNanos;
+
+            Stats(int maxPlies) {
+                this.lengthHistogram = new long[maxPlies / HISTOGRAM_BUCKET + 1];
+            }
+
+            void record(Team winner, int plies) {
+                if (winner == Team.RED) {
+                    this.redWins++;
+                } else if (winner == Team.BLACK) {
+                    this.blackWins++;
+                } else {
+                    this.draws++;
+                }
+                this.totalPlies += plies;
+                this.lengthHistogram[plies / HISTOGRAM_BUCKET]++;
+            }
+
+            void add(Stats other) {
+                this.redWins += other.redWins;
+                this.blackWins += other.blackWins;
+                this.draws += other.draws;
+                this.totalPlies += other.totalPlies;
+                for (int i = 0; i < this.lengthHistogram.length; i++) {
+                    this.lengthHistogram[i] += other.lengthHistogram[i];
+                }
+            }
+
+            public long games() {
+                return this.redWins + this.blackWins + this.draws;
+            }
+
+            public double gamesPerSecond() {
+                return this.elapsedNanos == 0 ? 0 : games() * 1e9 / this.elapsedNanos;
+            }
+
+            /**
+             * Describes the results as a short report
+             * 
+             * @return the report, one statistic per line
+             */
+            public String report() {
+                long games = Math.max(1, games());
+                StringBuilder report = new StringBuilder();
+                report.append(String.format("Games: %d in %.1f s (%.0f games/s)%n", games(), this.elapsedNanos / 1e9,
+                        gamesPerSecond()));
+                report.append(String.format("Red wins: %d (%.1f%%)%n", this.redWins, 100.0 * this.redWins / games));
+                report.append(String.format("Black wins: %d (%.1f%%)%n", this.blackWins,
+                        100.0 * this.blackWins / games));
+                report.append(String.format("Draws: %d (%.1f%%)%n", this.draws, 100.0 * this.draws / games));
+                report.append(String.format("Average length: %.1f plies%n", (double) this.totalPlies / games));
+                report.append(String.format("Game lengths:%n"));
+                for (int i = 0; i < this.lengthHistogram.length; i++) {
+                    if (this.lengthHistogram[i] > 0) {
+                        report.append(String.format("  %4d-%-4d %d%n", i * HISTOGRAM_BUCKET,
+                                (i + 1) * HISTOGRAM_BUCKET - 1, this.lengthHistogram[i]));
+                    }
+                }
+                return report.toString();
+            }
+        }
+    }
+
+    /**
+     * Hosts many games at once over a line based TCP protocol. Every game is a
+     * session addressed by its id, so any connection may play any session. A single
+     * thread serves every connection through a selector, so an idle session costs
+     * only its game and an idle connection only its channel.
+     * <p>
+     * Each request is one line and is answered by zero or more lines starting with
+     * {@code #}, carrying the messages the interactive game would print, followed by
+     * one status line starting with {@code ok}, {@code won}, {@code drawn} or
+     * {@code error}:
+     * <ul>
+     * <li>{@code new [red|black]} starts a standard game, red moving first unless
+     * given, and answers {@code ok <id> <team to move>}</li>
+     * <li>{@code <id> m x y x y}, {@code <id> c x y x y ...} and {@code <id> s} play
+     * a turn in the interactive grammar and answer {@code ok <team to move>}, or
+     * {@code won <team>} or {@code drawn <REPETITION|NO_PROGRESS>} when the turn
+     * ends the game</li>
+     * <li>{@code <id> fen} answers {@code ok <position>} in PDN FEN</li>
+     * <li>{@code <id> close} ends the session</li>
+     * <li>{@code stats} answers
+     * {@code ok sessions <n> connections <n> collections <n> heap <bytes>} with the
+     * collections run so far and the heap in use, garbage included, as forcing a
+     * collection would stall every session</li>
+     * <li>{@code quit} closes the connection, leaving its sessions open</li>
+     * </ul>
+     */
+    public static class Server {
+        /*
+         * The longest request accepted, protecting the server from clients that never
+         * end a line
+         */
+        private static final int MAX_LINE_LENGTH = 1024;
+
+        /*
+         * The most unsent reply data a connection may build up before it is dropped
+         */
+        private static final int MAX_PENDING_BYTES = 1 << 20;
+
+        /*
+         * How often sessions are checkpointed when no interval is configured
+         */
+        public static final long DEFAULT_CHECKPOINT_MILLIS = 1000;
+
+        private final int port;
+        private final Map<Long, Session> sessions = new HashMap<>();
+        private long nextSessionId = 1;
+        private int connections;
+
+        /*
+         * Where every session is saved, and how often, null when sessions are not
+         * checkpointed. Checkpoints are written by one background thread, and a
+         * checkpoint is skipped while the one before it is still being written
+         */
+        private Path checkpoint;
+        private long checkpointNanos;
+        private long nextCheckpoint;
+        private ExecutorService checkpointWriter;
+        private Future<?> pendingCheckpoint;
+
+        /*
+         * Shared by every connection, as only the selector thread touches them
+         */
+        private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        private final StringBuilder replies = new StringBuilder();
+        private final ByteArrayOutputStream turnOutput = new ByteArrayOutputStream();
+        private final PrintStream turnSink = new PrintStream(turnOutput, false, StandardCharsets.US_ASCII);
+
+        /**
+         * A game being played on the server
+         */
+        private static class Session {
+            final Game game;
+            Team nextTeam;
+
+            /*
+             * Taken when the session was last checkpointed, and dropped when a turn is
+             * played, so checkpoints only copy the sessions that changed
+             */
+            Snapshot snapshot;
+
+            Session(Team firstTeam) {
+                this(new Game(), firstTeam);
+            }
+
+            Session(Game game, Team nextTeam) {
+                this.game = game;
+                this.nextTeam = nextTeam;
+            }
+        }
+
+        /**
+         * The state kept for each connected client
+         */
+        private static class Connection {
+            /*
+             * The part of the current request received so far, created on first use
+             */
+            StringBuilder partialLine;
+
+            /*
+             * Replies the client has not yet accepted, null when everything has been sent
+             */
+            ByteBuffer pendingOutput;
+        }
+
+        /**
+         * @param port the port to listen on, 0 to pick any free port
+         */
+        public Server(int port) {
+            this.port = port;
+        }
+
+        /**
+         * Saves every session to a file at a fixed interval, and resumes the sessions
+         * of a file left by an earlier run when the server starts. Only sessions that
+         * played a turn since the last checkpoint are copied, and the file is written
+         * on another thread, so play does not wait for the disk
+         * 
+         * @param path           the checkpoint file
+         * @param intervalMillis the time between checkpoints
+         */
+        public void checkpointTo(Path path, long intervalMillis) {
+            if (intervalMillis < 1) {
+                throw new IllegalArgumentException("The checkpoint interval must be at least 1 ms");
+            }
+            this.checkpoint = path;
+            this.checkpointNanos = intervalMillis * 1_000_000;
+        }
+
+        /**
+         * Serves clients until the process ends
+         * 
+         * @throws IOException if the server socket cannot be opened or the checkpoint
+         *                     cannot be read
+         */
+        public void run() throws IOException {
+            if (this.checkpoint != null) {
+                resume();
+            }
+            try (Selector selector = Selector.open(); ServerSocketChannel server = ServerSocketChannel.open()) {
+                server.bind(new InetSocketAddress(this.port));
+                server.configureBlocking(false);
+                server.register(selector, SelectionKey.OP_ACCEPT);
+                System.out.println("Serving checkers on port " + ((InetSocketAddress) server.getLocalAddress()).getPort());
+                while (true) {
+                    if (this.checkpoint == null) {
+                        selector.select();
+                    } else {
+                        selector.select(Math.max(1, (this.nextCheckpoint - System.nanoTime()) / 1_000_000));
+                        if (System.nanoTime() >= this.nextCheckpoint) {
+                            checkpoint();
+                        }
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (key.isAcceptable()) {
+                                accept(server, selector);
+                            } else {
+                                if (key.isReadable()) {
+                                    read(key);
+                                }
+                                if (key.isValid() && key.isWritable()) {
+                                    write(key);
+                                }
+                            }
+                        } catch (IOException e) {
+                            close(key);
+                        }
+                    }
+                }
+            }
+        }
+
+        /*
+         * Restores the sessions of the checkpoint file, if there is one, and schedules
+         * the first checkpoint
+         */
+        private void resume() throws IOException {
+            if (Files.exists(this.checkpoint)) {
+                for (Map.Entry<Long, Snapshot> saved : Snapshot.loadAll(this.checkpoint).entrySet()) {
+                    Session session = new Session(saved.getValue().restore(), saved.getValue().nextTeam);
+                    session.snapshot = saved.getValue();
+                    this.sessions.put(saved.getKey(), session);
+                    this.nextSessionId = Math.max(this.nextSessionId, saved.getKey() + 1);
+                }
+                System.out.println("Resumed " + this.sessions.size() + " sessions from " + this.checkpoint);
+            }
+            this.checkpointWriter = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "checkpoint-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.nextCheckpoint = System.nanoTime() + this.checkpointNanos;
+        }
+
+        /*
+         * Snapshots the sessions that changed since the last checkpoint and hands every
+         * snapshot to the writer. Snapshots never change, so the writer can read them
+         * while the sessions play on
+         */
+        private void checkpoint() {
+            this.nextCheckpoint = System.nanoTime() + this.checkpointNanos;
+            if (this.pendingCheckpoint != null && !this.pendingCheckpoint.isDone()) {
+                return;
+            }
+            Map<Long, Snapshot> snapshots = new LinkedHashMap<>();
+            for (Map.Entry<Long, Session> entry : this.sessions.entrySet()) {
+                Session session = entry.getValue();
+                if (session.snapshot == null) {
+                    session.snapshot = session.game.snapshot(session.nextTeam);
+                }
+                snapshots.put(entry.getKey(), session.snapshot);
+            }
+            Path path = this.checkpoint;
+            this.pendingCheckpoint = this.checkpointWriter.submit(() -> {
+                try {
+                    Snapshot.saveAll(path, snapshots);
+                } catch (IOException e) {
+                    System.err.println("Could not write the checkpoint " + path + ": " + e.getMessage());
+                }
+            });
+        }
+
+        private void accept(ServerSocketChannel server, Selector selector) throws IOException {
+            SocketChannel channel = server.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+            this.connections++;
+        }
+
+        /*
+         * Handles every complete request received, then sends the replies together
+         */
+        private void read(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            this.readBuffer.clear();
+            if (channel.read(this.readBuffer) < 0) {
+                close(key);
+                return;
+            }
+            this.readBuffer.flip();
+            this.replies.setLength(0);
+            boolean open = true;
+            while (open && this.readBuffer.hasRemaining()) {
+                char c = (char) (this.readBuffer.get() & 0xFF);
+                if (connection.partialLine == null) {
+                    connection.partialLine = new StringBuilder();
+                }
+                if (c == '\n') {
+                    open = handle(connection.partialLine.toString().trim());
+                    connection.partialLine.setLength(0);
+                } else if (connection.partialLine.length() < MAX_LINE_LENGTH) {
+                    connection.partialLine.append(c);
+                } else {
+                    this.replies.append("error request too long\n");
+                    open = false;
+                }
+            }
+            send(key, connection);
+            if (!open) {
+                close(key);
+            }
+        }
+
+        private void write(SelectionKey key) throws IOException {
+            Connection connection = (Connection) key.attachment();
+            ((SocketChannel) key.channel()).write(connection.pendingOutput);
+            if (!connection.pendingOutput.hasRemaining()) {
+                connection.pendingOutput = null;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        /*
+         * Sends the replies built up by a read, holding back whatever the client is not
+         * ready to accept
+         */
+        private void send(SelectionKey key, Connection connection) throws IOException {
+            if (this.replies.length() == 0) {
+                return;
+            }
+            byte[] reply = this.replies.toString().getBytes(StandardCharsets.US_ASCII);
+            if (connection.pendingOutput != null) {
+                int pending = connection.pendingOutput.remaining();
+                if (pending + reply.length > MAX_PENDING_BYTES) {
+                    throw new IOException("The client is not reading its replies");
+                }
+                connection.pendingOutput = ByteBuffer.allocate(pending + reply.length)
+                        .put(connection.pendingOutput).put(reply).flip();
+                return;
+            }
+            ByteBuffer output = ByteBuffer.wrap(reply);
+            ((SocketChannel) key.channel()).write(output);
+            if (output.hasRemaining()) {
+                connection.pendingOutput = output;
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void close(SelectionKey key) {
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                // The connection is being dropped either way
+            }
+            this.connections--;
+        }
+
+        /**
+         * Answers one request, adding the reply to the pending replies
+         * 
+         * @param request the request line without its line ending
+         * @return set false if the connection should be closed
+         */
+        private boolean handle(String request) {
+            StringTokenizer st = new StringTokenizer(request);
+            if (!st.hasMoreTokens()) {
+                return true;
+            }
+            String command = st.nextToken().toLowerCase();
+            switch (command) {
+                case "new":
+                    Team firstTeam = Team.RED;
+                    if (st.hasMoreTokens()) {
+                        try {
+                            firstTeam = Team.valueOf(st.nextToken().toUpperCase());
+                        } catch (IllegalArgumentException e) {
+                            this.replies.append("error unknown team\n");
+                            return true;
+                        }
+                    }
+                    long id = this.nextSessionId++;
+                    this.sessions.put(id, new Session(firstTeam));
+                    this.replies.append("ok ").append(id).append(' ').append(firstTeam).append('\n');
+                    return true;
+                case "stats":
+                    Runtime runtime = Runtime.getRuntime();
+                    long collections = 0;
+                    for (GarbageCollectorMXBean collector : this.collectors) {
+                        collections += Math.max(0, collector.getCollectionCount());
+                    }
+                    this.replies.append("ok sessions ").append(this.sessions.size()).append(" connections ")
+                            .append(this.connections).append(" collections ").append(collections).append(" heap ")
+                            .append(runtime.totalMemory() - runtime.freeMemory()).append('\n');
+                    return true;
+                case "quit":
+                    this.replies.append("ok\n");
+                    return false;
+                default:
+                    Session session;
+                    try {
+                        session = this.sessions.get(Long.parseLong(command));
+                    } catch (NumberFormatException e) {
+                        this.replies.append("error unknown command\n");
+                        return true;
+                    }
+                    if (session == null) {
+                        this.replies.append("error unknown session\n");
+                        return true;
+                    }
+                    String turn = st.hasMoreTokens() ? st.nextToken("").trim() : "";
+                    handleSession(Long.parseLong(command), session, turn);
+                    return true;
+            }
+        }
+
+        private void handleSession(long id, Session session, String request) {
+            switch (request.toLowerCase()) {
+                case "fen":
+                    this.replies.append("ok ").append(Fen.format(session.game, session.nextTeam)).append('\n');
+                    return;
+                case "close":
+                    this.sessions.remove(id);
+                    this.replies.append("ok\n");
+                    return;
+                default:
+                    if (session.game.isComplete) {
+                        this.replies.append("error the game is over\n");
+                        return;
+                    }
+                    this.turnOutput.reset();
+                    boolean success = executeTurn(session.game, session.nextTeam, new StringTokenizer(request),
+                            this.turnSink);
+                    this.turnSink.flush();
+                    for (String message : this.turnOutput.toString(StandardCharsets.US_ASCII).split("\\R")) {
+                        if (!message.isEmpty()) {
+                            this.replies.append("# ").append(message).append('\n');
+                        }
+                    }
+                    if (!success) {
+                        this.replies.append("error the move provided could not be executed\n");
+                        return;
+                    }
+                    session.nextTeam = opponentOf(session.nextTeam);
+                    session.game.endTurn(session.nextTeam);
+                    session.snapshot = null;
+                    if (!session.game.isComplete) {
+                        this.replies.append("ok ").append(session.nextTeam).append('\n');
+                    } else if (session.game.winner != null) {
+                        this.replies.append("won ").append(session.game.winner).append('\n');
+                    } else {
+                        this.replies.append("drawn ").append(session.game.result).append('\n');
+                    }
+            }
+        }
+    }
+
+    /**
+     * Drives a server with clients playing random games, measuring how long the
+     * server takes to answer each turn
+     */
+    public static class LoadGenerator {
+        /*
+         * The length at which a game is abandoned and a new one started
+         */
+        private static final int MAX_PLIES = 200;
+
+        private final String host;
+        private final int port;
+        private final int clients;
+        private final int movesPerClient;
+        private final int idleSessions;
+        private final long seed;
+
+        /**
+         * @param host           the server's host
+         * @param port           the server's port
+         * @param clients        the number of clients playing at once, each on its own
+         *                       connection and thread
+         * @param movesPerClient the number of turns each client plays
+         * @param idleSessions   the number of sessions to open and leave untouched
+         *                       before playing
+         * @param seed           the seed the clients' seeds are derived from
+         */
+        public LoadGenerator(String host, int port, int clients, int movesPerClient, int idleSessions, long seed) {
+            this.host = host;
+            this.port = port;
+            this.clients = clients;
+            this.movesPerClient = movesPerClient;
+            this.idleSessions = idleSessions;
+            this.seed = seed;
+        }
+
+        /**
+         * Opens the idle sessions, then plays every client to completion
+         * 
+         * @return a report of the latencies seen and the server's memory use
+         * @throws IOException if the server cannot be reached
+         */
+        public String run() throws IOException {
+            StringBuilder report = new StringBuilder();
+            try (Socket socket = connect()) {
+                BufferedReader in = reader(socket);
+                OutputStream out = socket.getOutputStream();
+                long[] before = stats(in, out);
+                // Pipeline the requests, as waiting for each answer would only measure the
+                // round trip
+                StringBuilder requests = new StringBuilder();
+                for (int i = 0; i < this.idleSessions; i++) {
+                    requests.append("new\n");
+                }
+                out.write(requests.toString().getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                for (int i = 0; i < this.idleSessions; i++) {
+                    expect(in, "ok");
+                }
+                if (this.idleSessions > 0) {
+                    long[] after = stats(in, out);
+                    long used = after[1] - before[1];
+                    if (after[0] != before[0]) {
+                        // The server does not collect on request, so a collection that ran
+                        // on its own took the sessions' garbage and perhaps more with it
+                        report.append(String.format("Idle sessions: %d, not measured as the server collected "
+                                + "garbage while they were opened%n", this.idleSessions));
+                    } else {
+                        report.append(String.format("Idle sessions: %d using %d KB (%d bytes each)%n",
+                                this.idleSessions, used / 1024, used / this.idleSessions));
+                    }
+                }
+            }
+            long start = System.nanoTime();
+            ExecutorService pool = Executors.newFixedThreadPool(this.clients);
+            List<Future<long[]>> workers = new ArrayList<>();
+            for (int i = 0; i < this.clients; i++) {
+                long clientSeed = this.seed + i;
+                workers.add(pool.submit(() -> play(clientSeed)));
+            }
+            long[] latencies = new long[this.clients * this.movesPerClient];
+            try {
+                for (int i = 0; i < workers.size(); i++) {
+                    System.arraycopy(workers.get(i).get(), 0, latencies, i * this.movesPerClient,
+                            this.movesPerClient);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("The load test was interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("A load test client failed", e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            Arrays.sort(latencies);
+            report.append(String.format("Turns: %d from %d clients in %.1f s (%.0f turns/s)%n", latencies.length,
+                    this.clients, elapsedNanos / 1e9, latencies.length * 1e9 / elapsedNanos));
+            report.append(String.format("Latency: p50 %d us, p99 %d us, max %d us%n",
+                    percentile(latencies, 0.50) / 1000, percentile(latencies, 0.99) / 1000,
+                    latencies[latencies.length - 1] / 1000));
+            return report.toString();
+        }
+
+        /*
+         * Plays random games on one connection, starting a new game whenever one ends,
+         * and returns the latency of each turn
+         */
+        private long[] play(long clientSeed) throws IOException {
+            long[] latencies = new long[this.movesPerClient];
+            SplittableRandom random = new SplittableRandom(clientSeed);
+            TurnList turns = new TurnList();
+            try (Socket socket = connect()) {
+                BufferedReader in = reader(socket);
+                OutputStream out = socket.getOutputStream();
+                String id = null;
+                Game game = null;
+                Team team = Team.RED;
+                int plies = 0;
+                for (int i = 0; i < this.movesPerClient; i++) {
+                    if (id == null) {
+                        out.write("new\n".getBytes(StandardCharsets.US_ASCII));
+                        out.flush();
+                        id = expect(in, "ok").split(" ")[1];
+                        game = new Game();
+                        team = Team.RED;
+                        plies = 0;
+                    }
+                    // Mirror the game locally so the client only sends legal turns
+                    turns.generate(game, team);
+                    String turn = "s";
+                    if (turns.count > 0) {
+                        int chosen = random.nextInt(turns.count);
+                        turn = turns.toCommand(chosen, game.board);
+                        turns.make(game, chosen);
+                    }
+                    game.endTurn(opponentOf(team));
+                    long sent = System.nanoTime();
+                    out.write((id + " " + turn + "\n").getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    String status = expect(in, !game.isComplete ? "ok" : game.winner != null ? "won" : "drawn");
+                    latencies[i] = System.nanoTime() - sent;
+                    team = opponentOf(team);
+                    if (!status.startsWith("ok") || ++plies >= MAX_PLIES) {
+                        out.write((id + " close\n").getBytes(StandardCharsets.US_ASCII));
+                        out.flush();
+                        expect(in, "ok");
+                        id = null;
+                    }
+                }
+                out.write("quit\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            }
+            return latencies;
+        }
+
+        private Socket connect() throws IOException {
+            Socket socket = new Socket(this.host, this.port);
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+
+        private static BufferedReader reader(Socket socket) throws IOException {
+            return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+        }
+
+        /*
+         * Asks the server for the collections it has run and its heap in use
+         */
+        private static long[] stats(BufferedReader in, OutputStream out) throws IOException {
+            out.write("stats\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            String[] stats = expect(in, "ok").split(" ");
+            return new long[] { Long.parseLong(stats[stats.length - 3]), Long.parseLong(stats[stats.length - 1]) };
+        }
+
+        /*
+         * Reads past any messages to the status line, failing unless it has the
+         * expected status
+         */
+        private static String expect(BufferedReader in, String status) throws IOException {
+            String line;
+            do {
+                line = in.readLine();
+                if (line == null) {
+                    throw new IOException("The server closed the connection");
+                }
+            } while (line.startsWith("#"));
+            if (!line.startsWith(status)) {
+                throw new IOException("Expected " + status + " from the server but got: " + line);
+            }
+            return line;
+        }
+
+        private static long percentile(long[] sorted, double fraction) {
+            int index = (int) Math.ceil(fraction * sorted.length) - 1;
+            return sorted[Math.max(0, index)];
+        }
+    }
+
+    /**
+     * The whole state of a game between two turns: its checkers, the team to move,
+     * its rules and result, and every move made with what is needed to take it
+     * back. A restored game carries on as if it had never stopped, able to undo
+     * moves and to spot repetitions of positions from before the snapshot.
+     * <p>
+     * Snapshots never change once taken, so they can be written by another thread
+     * while the game plays on, and one taken when a game last changed can be reused
+     * for as long as it does not change again. A snapshot is written as the bytes
+     * {@code CKS1} followed by a fixed layout of big endian fields: one byte each for
+     * the board size, the rules, the team to move, the result plus one and the
+     * winner plus one (0 for none), the no progress limit as an int, a short count
+     * of checkers and a short for each (its square shifted left by two, then a bit
+     * set for red and a bit set for a king), an int count of moves made with an int
+     * for each move and then a byte of undo flags for each, and an int count of
+     * turns ended with, for each, the moves made when it ended, the turns without
+     * progress and the position's hash. Checkpoint files hold many snapshots: the
+     * bytes {@code CKC1}, an int count, then each snapshot's layout after a long key.
+     * Files are read through memory mapping, straight from the page cache into the
+     * restored game's arrays.
+     */
+    public static class Snapshot {
+        /*
+         * The bytes starting a file of one snapshot and a file of many
+         */
+        private static final byte[] MAGIC = { 'C', 'K', 'S', '1' };
+        private static final byte[] CHECKPOINT_MAGIC = { 'C', 'K', 'C', '1' };
+
+        public final int boardSize;
+        public final Rules rules;
+        public final int noProgressLimit;
+        public final Team nextTeam;
+
+        /*
+         * How the game ended and who won, both null while it is in progress
+         */
+        public final GameResult result;
+        public final Team winner;
+
+        /*
+         * Each checker packed by packPiece
+         */
+        final short[] pieces;
+
+        /*
+         * The game's undo stack of a packed move and its flags for each move made, and
+         * its record of each turn ended
+         */
+        final int[] undo;
+        final int[] turnEnds;
+        final long[] turnPositions;
+        final int[] quietTurns;
+
+        Snapshot(int boardSize, Rules rules, int noProgressLimit, Team nextTeam, GameResult result, Team winner,
+                short[] pieces, int[] undo, int[] turnEnds, long[] turnPositions, int[] quietTurns) {
+            this.boardSize = boardSize;
+            this.rules = rules;
+            this.noProgressLimit = noProgressLimit;
+            this.nextTeam = nextTeam;
+            this.result = result;
+            this.winner = winner;
+            this.pieces = pieces;
+            this.undo = undo;
+            this.turnEnds = turnEnds;
+            this.turnPositions = turnPositions;
+            this.quietTurns = quietTurns;
+        }
+
+        public int movesMade() {
+            return this.undo.length / 2;
+        }
+
+        public int turnsEnded() {
+            return this.turnEnds.length;
+        }
+
+        /**
+         * Builds a new game holding the snapshot's state
+         * 
+         * @return the restored game
+         */
+        public Game restore() {
+            Game game = new Game(this.boardSize);
+            game.restore(this);
+            return game;
+        }
+
+        static short packPiece(int square, Team team, boolean isKing) {
+            return (short) (square << 2 | (team == Team.RED ? 2 : 0) | (isKing ? 1 : 0));
+        }
+
+        static int squareOf(short piece) {
+            return piece >>> 2;
+        }
+
+        static Team teamOf(short piece) {
+            return (piece & 2) != 0 ? Team.RED : Team.BLACK;
+        }
+
+        static boolean isKing(short piece) {
+            return (piece & 1) != 0;
+        }
+
+        /**
+         * @return the bytes the snapshot takes when written, without a file's magic
+         */
+        public int size() {
+            return 5 + Integer.BYTES + Short.BYTES * (1 + this.pieces.length) + Integer.BYTES + 5 * movesMade()
+                    + Integer.BYTES + 16 * turnsEnded();
+        }
+
+        /**
+         * Writes the snapshot's fields at the buffer's position
+         * 
+         * @param out a buffer with at least {@link #size()} bytes remaining
+         */
+        public void write(ByteBuffer out) {
+            out.put((byte) this.boardSize).put((byte) this.rules.ordinal()).put((byte) this.nextTeam.ordinal())
+                    .put((byte) (this.result == null ? 0 : this.result.ordinal() + 1))
+                    .put((byte) (this.winner == null ? 0 : this.winner.ordinal() + 1)).putInt(this.noProgressLimit);
+            out.putShort((short) this.pieces.length);
+            for (short piece : this.pieces) {
+                out.putShort(piece);
+            }
+            out.putInt(movesMade());
+            for (int i = 0; i < this.undo.length; i += 2) {
+                out.putInt(this.undo[i]);
+            }
+            for (int i = 1; i < this.undo.length; i += 2) {
+                out.put((byte) this.undo[i]);
+            }
+            out.putInt(turnsEnded());
+            for (int i = 0; i < this.turnEnds.length; i++) {
+                out.putInt(this.turnEnds[i]).putInt(this.quietTurns[i]).putLong(this.turnPositions[i]);
+            }
+        }
+
+        /**
+         * Reads a snapshot's fields from the buffer's position
+         * 
+         * @param in the buffer to read
+         * @return the snapshot read
+         * @throws IOException if the fields are cut short or out of range
+         */
+        public static Snapshot read(ByteBuffer in) throws IOException {
+            try {
+                int boardSize = in.get();
+                if (boardSize < 1 || boardSize > BitBoard.MAX_BOARD_SIZE) {
+                    throw new IOException("A snapshot cannot hold a board " + boardSize + " squares wide");
+                }
+                Rules rules = Rules.values()[in.get()];
+                Team nextTeam = Team.values()[in.get()];
+                int result = in.get();
+                int winner = in.get();
+                int noProgressLimit = in.getInt();
+                short[] pieces = new short[in.getShort()];
+                for (int i = 0; i < pieces.length; i++) {
+                    pieces[i] = in.getShort();
+                    if (squareOf(pieces[i]) >= boardSize * boardSize) {
+                        throw new IOException("A checker of the snapshot is off the board");
+                    }
+                }
+                int[] undo = new int[2 * in.getInt()];
+                for (int i = 0; i < undo.length; i += 2) {
+                    undo[i] = in.getInt();
+                }
+                for (int i = 1; i < undo.length; i += 2) {
+                    undo[i] = in.get();
+                }
+                int turns = in.getInt();
+                int[] turnEnds = new int[turns];
+                int[] quietTurns = new int[turns];
+                long[] turnPositions = new long[turns];
+                for (int i = 0; i < turns; i++) {
+                    turnEnds[i] = in.getInt();
+                    quietTurns[i] = in.getInt();
+                    turnPositions[i] = in.getLong();
+                }
+                return new Snapshot(boardSize, rules, noProgressLimit, nextTeam,
+                        result == 0 ? null : GameResult.values()[result - 1],
+                        winner == 0 ? null : Team.values()[winner - 1], pieces, undo, turnEnds, turnPositions,
+                        quietTurns);
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+                throw new IOException("The snapshot is cut short or corrupt", e);
+            }
+        }
+
+        /**
+         * Writes the snapshot to a file, replacing it in one step so a crash while
+         * saving leaves the last file whole
+         * 
+         * @param path the file to write
+         * @throws IOException if the file cannot be written
+         */
+        public void save(Path path) throws IOException {
+            ByteBuffer out = ByteBuffer.allocate(MAGIC.length + size());
+            out.put(MAGIC);
+            write(out);
+            replace(path, out);
+        }
+
+        /**
+         * Reads a snapshot written by {@link #save(Path)}
+         * 
+         * @param path the file to read
+         * @return the snapshot in the file
+         * @throws IOException if the file cannot be read or is not a snapshot
+         */
+        public static Snapshot load(Path path) throws IOException {
+            ByteBuffer in = map(path, MAGIC, "snapshot");
+            Snapshot snapshot = read(in);
+            if (in.hasRemaining()) {
+                throw new IOException(path + " has bytes after its snapshot");
+            }
+            return snapshot;
+        }
+
+        /**
+         * Writes many snapshots to one file, replacing it in one step
+         * 
+         * @param path      the file to write
+         * @param snapshots each snapshot by its key
+         * @throws IOException if the file cannot be written
+         */
+        public static void saveAll(Path path, Map<Long, Snapshot> snapshots) throws IOException {
+            int size = CHECKPOINT_MAGIC.length + Integer.BYTES;
+            for (Snapshot snapshot : snapshots.values()) {
+                size += Long.BYTES + snapshot.size();
+            }
+            ByteBuffer out = ByteBuffer.allocate(size);
+            out.put(CHECKPOINT_MAGIC).putInt(snapshots.size());
+            for (Map.Entry<Long, Snapshot> snapshot : snapshots.entrySet()) {
+                out.putLong(snapshot.getKey());
+                snapshot.getValue().write(out);
+            }
+            replace(path, out);
+        }
+
+        /**
+         * Reads the snapshots written by {@link #saveAll(Path, Map)}
+         * 
+         * @param path the file to read
+         * @return each snapshot by its key, in the order they were written
+         * @throws IOException if the file cannot be read or is not a checkpoint
+         */
+        public static Map<Long, Snapshot> loadAll(Path path) throws IOException {
+            ByteBuffer in = map(path, CHECKPOINT_MAGIC, "checkpoint");
+            Map<Long, Snapshot> snapshots = new LinkedHashMap<>();
+            try {
+                for (int count = in.getInt(); count > 0; count--) {
+                    long key = in.getLong();
+                    snapshots.put(key, read(in));
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IOException(path + " is cut short", e);
+            }
+            return snapshots;
+        }
+
+        /*
+         * Maps a whole file, checking that it starts with the magic bytes. The mapping
+         * stays valid after the channel is closed
+         */
+        private static ByteBuffer map(Path path, byte[] magic, String kind) throws IOException {
+            MappedByteBuffer in;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            boolean matches = in.remaining() >= magic.length;
+            for (int i = 0; matches && i < magic.length; i++) {
+                matches = in.get() == magic[i];
+            }
+            if (!matches) {
+                throw new IOException(path + " is not a " + kind + " file");
+            }
+            return in;
+        }
+
+        /*
+         * Writes beside the file and then moves over it, so readers only ever see a
+         * whole file
+         */
+        private static void replace(Path path, ByteBuffer contents) throws IOException {
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.write(temporary, contents.array());
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * A game as it was played: the starting position, the team that moved first and
+     * the moves of every turn. Records are stored back to back in a compact binary
+     * log and can be converted to and from PDN.
+     * <p>
+     * A log starts with the bytes {@code CKR1} and each record is written as
+     * unsigned LEB128 varints: the board size, the red, black and king masks, the
+     * first team (0 for red, 1 for black), then each turn as its number of moves
+     * plus one followed by the square the turn starts on and the square each move
+     * lands on. A turn of 0 moves is a skip, and a 0 in place of a turn ends the
+     * record, though the last record may stop after any turn if its game was
+     * interrupted. Records are reused when reading so that replaying a log does not
+     * allocate.
+     */
+    public static class GameRecord {
+        /*
+         * The bytes starting every log
+         */
+        private static final byte[] MAGIC = { 'C', 'K', 'R', '1' };
+
+        /*
+         * The largest record a reader accepts, which bounds how far ahead of a record
+         * the mapped window must reach
+         */
+        private static final int MAX_RECORD_BYTES = 1 << 20;
+
+        /*
+         * The longest line of PDN movetext accepted
+         */
+        private static final int MAX_PDN_LINE = 1 << 16;
+
+        public int boardSize;
+        public long red;
+        public long black;
+        public long kings;
+        public Team firstTeam;
+        public int turnCount;
+        public int hopCount;
+
+        /*
+         * The packed moves of every turn back to back, and the index just past the
+         * last move of each turn
+         */
+        private int[] hops = new int[256];
+        private int[] turnEnds = new int[128];
+
+        /**
+         * Empties the record and sets its starting position
+         * 
+         * @param game      the game before its first turn
+         * @param firstTeam the team taking the first turn
+         */
+        public void start(Game game, Team firstTeam) {
+            requirePacked(game);
+            this.boardSize = game.boardSize;
+            this.red = game.board.red;
+            this.black = game.board.black;
+            this.kings = game.board.kings;
+            this.firstTeam = firstTeam;
+            this.turnCount = 0;
+            this.hopCount = 0;
+        }
+
+        /*
+         * Records store the starting position as masks, so boards too wide for masks
+         * cannot be recorded
+         */
+        private static void requirePacked(Game game) {
+            if (!game.board.isPacked()) {
+                throw new IllegalArgumentException("Only boards up to " + BitBoard.MAX_PACKED_SIZE
+                        + " squares wide can be recorded, not " + game.boardSize);
+            }
+        }
+
+        /**
+         * Adds a move to the current turn
+         * 
+         * @param move the packed move
+         */
+        public void addHop(int move) {
+            if (this.hopCount == this.hops.length) {
+                this.hops = Arrays.copyOf(this.hops, this.hopCount * 2);
+            }
+            this.hops[this.hopCount++] = move;
+        }
+
+        /**
+         * Ends the current turn, which is a skip if no moves were added since the last
+         * turn ended
+         */
+        public void endTurn() {
+            if (this.turnCount == this.turnEnds.length) {
+                this.turnEnds = Arrays.copyOf(this.turnEnds, this.turnCount * 2);
+            }
+            this.turnEnds[this.turnCount++] = this.hopCount;
+        }
+
+        public int turnStart(int turn) {
+            return turn == 0 ? 0 : this.turnEnds[turn - 1];
+        }
+
+        public int turnLength(int turn) {
+            return this.turnEnds[turn] - turnStart(turn);
+        }
+
+        public int hop(int index) {
+            return this.hops[index];
+        }
+
+        /**
+         * @param turn the index of a turn
+         * @return the team taking the turn
+         */
+        public Team teamOf(int turn) {
+            return turn % 2 == 0 ? this.firstTeam : opponentOf(this.firstTeam);
+        }
+
+        /**
+         * Builds the game as it was before the first turn
+         * 
+         * @return a new game holding the starting position
+         */
+        public Game startPosition() {
+            Game game = new Game(this.boardSize);
+            load(game);
+            return game;
+        }
+
+        /**
+         * Rewinds a game of the same board size and sets it to the starting position,
+         * so one game can be reused to replay many records
+         * 
+         * @param game the game to reset
+         */
+        public void load(Game game) {
+            game.rewind();
+            long occupied = game.board.occupied();
+            while (occupied != 0L) {
+                game.board.remove(Long.numberOfTrailingZeros(occupied));
+                occupied &= occupied - 1;
+            }
+            game.isComplete = false;
+            placeAll(game, this.red, Team.RED);
+            placeAll(game, this.black, Team.BLACK);
+        }
+
+        private void placeAll(Game game, long pieces, Team team) {
+            while (pieces != 0L) {
+                int square = Long.numberOfTrailingZeros(pieces);
+                pieces &= pieces - 1;
+                game.board.place(square, team, (this.kings & (1L << square)) != 0L);
+            }
+        }
+
+        /**
+         * Plays every turn of the record on a game holding its starting position,
+         * checking each move against the rules of the console game. Each turn is
+         * ended as the game ends it, so the game finishes the same way it did when
+         * it was played, its result telling a draw from an unfinished game
+         * 
+         * @param game the game to play the turns on
+         * @return the team that won, or null if the game was drawn or not completed
+         * @throws IllegalStateException if a move is not valid, or a turn follows the
+         *                               end of the game
+         */
+        public Team replay(Game game) {
+            BitBoard board = game.board;
+            for (int turn = 0; turn < this.turnCount; turn++) {
+                int end = this.turnEnds[turn];
+                if (game.isComplete) {
+                    throw new IllegalStateException("Turn " + (turn + 1) + " is played after the game was "
+                            + (game.result.isDraw ? "drawn " : "won by " + game.winner + " ")
+                            + game.result.description);
+                }
+                for (int i = turnStart(turn); i < end; i++) {
+                    int move = this.hops[i];
+                    int from = BitBoard.moveFrom(move);
+                    int to = BitBoard.moveTo(move);
+                    boolean valid = game.isComplete ? false
+                            : BitBoard.isCapture(move)
+                                    ? board.isValidCapture(from, to)
+                                            && (i == turnStart(turn) || from == BitBoard.moveTo(this.hops[i - 1]))
+                                    : end - turnStart(turn) == 1 && board.isValidMove(from, to);
+                    if (!valid) {
+                        throw new IllegalStateException("Turn " + (turn + 1) + " is not valid: "
+                                + formatTurn(board, this.hops, turnStart(turn), end - turnStart(turn)));
+                    }
+                    game.makeMove(move);
+                }
+                game.endTurn(teamOf(turn + 1));
+            }
+            return game.winner;
+        }
+
+        /**
+         * Packs a move read from a log or from PDN, where only the squares are known
+         */
+        static int hopBetween(int from, int to, int boardSize) {
+            return Math.abs(to / boardSize - from / boardSize) == 2
+                    ? BitBoard.encodeCapture(from, to, (from + to) / 2)
+                    : BitBoard.encodeMove(from, to);
+        }
+
+        /**
+         * Opens a log for appending, starting it if it is new
+         * 
+         * @param path the log
+         * @return a buffered stream positioned at the end of the log
+         * @throws IOException if the log cannot be opened
+         */
+        public static OutputStream append(Path path) throws IOException {
+            boolean isNew = !Files.exists(path) || Files.size(path) == 0;
+            OutputStream out = new BufferedOutputStream(
+                    Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+            if (isNew) {
+                out.write(MAGIC);
+            }
+            return out;
+        }
+
+        /**
+         * Streams turns into a log as they are played. Moves are held until their turn
+         * ends, and nothing is written to the log for a record until it begins
+         */
+        public static class LogWriter implements Closeable {
+            private final OutputStream out;
+            private byte[] bytes = new byte[64];
+            private int length;
+            private int[] turn = new int[16];
+            private int turnLength;
+
+            /**
+             * @param out the stream to write records to, positioned after the start of
+             *            the log
+             */
+            public LogWriter(OutputStream out) {
+                this.out = out;
+            }
+
+            /**
+             * Starts a record
+             * 
+             * @param game      the game before its first turn
+             * @param firstTeam the team taking the first turn
+             * @throws IOException if the record cannot be written
+             */
+            public void begin(Game game, Team firstTeam) throws IOException {
+                requirePacked(game);
+                this.length = 0;
+                this.turnLength = 0;
+                putVarint(game.boardSize);
+                putVarint(game.board.red);
+                putVarint(game.board.black);
+                putVarint(game.board.kings);
+                putVarint(firstTeam.ordinal());
+                flushBytes();
+            }
+
+            /**
+             * Adds a move to the current turn
+             * 
+             * @param move the packed move
+             */
+            public void hop(int move) {
+                if (this.turnLength == this.turn.length) {
+                    this.turn = Arrays.copyOf(this.turn, this.turnLength * 2);
+                }
+                this.turn[this.turnLength++] = move;
+            }
+
+            /**
+             * Writes the current turn, which is a skip if it has no moves
+             * 
+             * @throws IOException if the turn cannot be written
+             */
+            public void endTurn() throws IOException {
+                putVarint(this.turnLength + 1);
+                if (this.turnLength > 0) {
+                    putVarint(BitBoard.moveFrom(this.turn[0]));
+                    for (int i = 0; i < this.turnLength; i++) {
+                        putVarint(BitBoard.moveTo(this.turn[i]));
+                    }
+                }
+                this.turnLength = 0;
+                flushBytes();
+            }
+
+            /**
+             * Ends the current record
+             * 
+             * @throws IOException if the record cannot be written
+             */
+            public void end() throws IOException {
+                putVarint(0);
+                flushBytes();
+                this.out.flush();
+            }
+
+            /**
+             * Writes a whole record
+             * 
+             * @param record the record to write
+             * @throws IOException if the record cannot be written
+             */
+            public void write(GameRecord record) throws IOException {
+                begin(record.startPosition(), record.firstTeam);
+                for (int turn = 0; turn < record.turnCount; turn++) {
+                    for (int i = record.turnStart(turn); i < record.turnEnds[turn]; i++) {
+                        hop(record.hops[i]);
+                    }
+                    endTurn();
+                }
+                end();
+            }
+
+            public void flush() throws IOException {
+                this.out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                this.out.close();
+            }
+
+            private void putVarint(long value) {
+                if (this.length + 10 > this.bytes.length) {
+                    this.bytes = Arrays.copyOf(this.bytes, this.bytes.length * 2);
+                }
+                while ((value & ~0x7FL) != 0L) {
+                    this.bytes[this.length++] = (byte) ((value & 0x7F) | 0x80);
+                    value >>>= 7;
+                }
+                this.bytes[this.length++] = (byte) value;
+            }
+
+            private void flushBytes() throws IOException {
+                this.out.write(this.bytes, 0, this.length);
+                this.length = 0;
+            }
+        }
+
+        /**
+         * Reads the records of a log one after another through a memory mapped window
+         * that slides along the file, so logs of any size are read without loading
+         * them
+         */
+        public static class LogReader implements Closeable {
+            /*
+             * The most of the file mapped at once
+             */
+            private static final long WINDOW_BYTES = 64L << 20;
+
+            private final FileChannel channel;
+            private final long fileSize;
+            private long windowStart;
+            private MappedByteBuffer window;
+
+            /**
+             * @param path the log to read
+             * @throws IOException if the file cannot be read or is not a log
+             */
+            public LogReader(Path path) throws IOException {
+                this.channel = FileChannel.open(path, StandardOpenOption.READ);
+                this.fileSize = this.channel.size();
+                map(0);
+                for (byte b : MAGIC) {
+                    if (this.fileSize < MAGIC.length || this.window.get() != b) {
+                        close();
+                        throw new IOException(path + " is not a game log");
+                    }
+                }
+            }
+
+            /**
+             * Reads the next record
+             * 
+             * @param record the record to fill
+             * @return false if there are no more records
+             * @throws IOException if the record is cut short
+             */
+            public boolean next(GameRecord record) throws IOException {
+                long position = this.windowStart + this.window.position();
+                if (position == this.fileSize) {
+                    return false;
+                }
+                if (this.window.remaining() < MAX_RECORD_BYTES && this.windowStart + this.window.limit() < this.fileSize) {
+                    map(position);
+                }
+                try {
+                    record.boardSize = (int) getVarint();
+                    record.red = getVarint();
+                    record.black = getVarint();
+                    record.kings = getVarint();
+                    record.firstTeam = Team.values()[(int) getVarint()];
+                    record.turnCount = 0;
+                    record.hopCount = 0;
+                    int length;
+                    // A log whose last game was interrupted ends between two turns
+                    while (this.window.hasRemaining() && (length = (int) getVarint() - 1) >= 0) {
+                        int from = length == 0 ? 0 : (int) getVarint();
+                        for (int i = 0; i < length; i++) {
+                            int to = (int) getVarint();
+                            record.addHop(hopBetween(from, to, record.boardSize));
+                            from = to;
+                        }
+                        record.endTurn();
+                    }
+                } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException("The record at byte " + position + " is cut short or corrupt", e);
+                }
+                return true;
+            }
+
+            @Override
+            public void close() throws IOException {
+                this.channel.close();
+            }
+
+            private void map(long position) throws IOException {
+                this.windowStart = position;
+                this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(WINDOW_BYTES, this.fileSize - position));
+            }
+
+            private long getVarint() {
+                long value = 0L;
+                for (int shift = 0;; shift += 7) {
+                    byte b = this.window.get();
+                    value |= (long) (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        return value;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Writes a record as a PDN game. The starting position is always given as a FEN
+         * tag, red plays white, and a skipped turn is written as {@code --}
+         * 
+         * @param out where to write the game
+         * @throws IOException if the game cannot be written
+         */
+        public void writePdn(Appendable out) throws IOException {
+            Game game = startPosition();
+            Game played = game.copy();
+            Team winner = replay(played);
+            String result = winner == Team.RED ? "1-0"
+                    : winner == Team.BLACK ? "0-1" : played.result != null ? "1/2-1/2" : "*";
+            out.append("[Event \"CLI Checkers\"]\n");
+            out.append("[FEN \"").append(Fen.format(game, this.firstTeam)).append("\"]\n");
+            out.append("[Result \"").append(result).append("\"]\n");
+            StringBuilder line = new StringBuilder();
+            for (int turn = 0; turn < this.turnCount; turn++) {
+                StringBuilder token = new StringBuilder();
+                if (turn % 2 == 0) {
+                    token.append(turn / 2 + 1).append(". ");
+                }
+                int start = turnStart(turn);
+                int length = turnLength(turn);
+                if (length == 0) {
+                    token.append("--");
+                } else {
+                    token.append(Fen.numberOf(BitBoard.moveFrom(this.hops[start]), this.boardSize));
+                    for (int i = start; i < start + length; i++) {
+                        token.append(BitBoard.isCapture(this.hops[i]) ? 'x' : '-')
+                                .append(Fen.numberOf(BitBoard.moveTo(this.hops[i]), this.boardSize));
+                    }
+                }
+                if (line.length() + token.length() > 79) {
+                    out.append(line).append('\n');
+                    line.setLength(0);
+                } else if (line.length() > 0) {
+                    line.append(' ');
+                }
+                line.append(token);
+            }
+            if (line.length() + result.length() > 79) {
+                out.append(line).append('\n');
+                line.setLength(0);
+            } else if (line.length() > 0) {
+                line.append(' ');
+            }
+            out.append(line).append(result).append("\n\n");
+        }
+
+        /**
+         * Reads the next PDN game on a standard board. Games without a FEN tag start
+         * from the standard opening with black to move, as PDN expects. Comments are
+         * skipped and every move must list each square it lands on
+         * 
+         * @param in the PDN to read
+         * @return false if there are no more games
+         * @throws IOException              if the PDN cannot be read
+         * @throws IllegalArgumentException if the PDN is not valid
+         */
+        public boolean readPdn(BufferedReader in) throws IOException {
+            String fen = null;
+            boolean inGame = false;
+            boolean inComment = false;
+            int boardSize = 8;
+            String line;
+            in.mark(MAX_PDN_LINE);
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (!inComment && line.startsWith("[")) {
+                    if (inGame) {
+                        // The game had no result, and this tag starts the next one
+                        in.reset();
+                        return true;
+                    }
+                    int quote = line.indexOf('"');
+                    if (quote > 0 && line.substring(1, quote).trim().equalsIgnoreCase("FEN")) {
+                        fen = line.substring(quote + 1, line.lastIndexOf('"'));
+                    }
+                    continue;
+                }
+                for (String token : line.split("\\s+")) {
+                    if (inComment) {
+                        inComment = !token.endsWith("}");
+                        continue;
+                    }
+                    if (token.startsWith("{")) {
+                        inComment = !token.endsWith("}");
+                        continue;
+                    }
+                    token = token.replaceFirst("^\\d+\\.+", "");
+                    if (token.isEmpty()) {
+                        continue;
+                    }
+                    if (!inGame) {
+                        start(fen == null ? Fen.parse(Fen.STANDARD_START.replaceFirst("^W", "B"))
+                                : Fen.parse(fen, boardSize), fen == null ? Team.BLACK : Fen.sideToMove(fen));
+                        inGame = true;
+                    }
+                    if (token.equals("1-0") || token.equals("0-1") || token.equals("1/2-1/2") || token.equals("*")) {
+                        return true;
+                    }
+                    if (!token.equals("--")) {
+                        String[] squares = token.split("[-x]");
+                        if (squares.length < 2) {
+                            throw new IllegalArgumentException("Unrecognized PDN move " + token);
+                        }
+                        int from = Fen.squareOf(Integer.parseInt(squares[0]), boardSize);
+                        for (int i = 1; i < squares.length; i++) {
+                            int to = Fen.squareOf(Integer.parseInt(squares[i]), boardSize);
+                            addHop(hopBetween(from, to, boardSize));
+                            from = to;
+                        }
+                    }
+                    endTurn();
+                }
+                in.mark(MAX_PDN_LINE);
+            }
+            return inGame;
+        }
+    }
+
+    /**
+     * The exact result of every position on a standard board with only a few
+     * checkers left, found by retrograde analysis and read through a memory mapped
+     * file. Each entry is the number of plies the team to move needs to win
+     * (positive), can hold out before losing (negative), or 0 for a draw.
+     * <p>
+     * Results follow the engine's view of the rules: a team plays its own checkers,
+     * captures and continuing a capture are optional, a team only passes when it
+     * has no turn, and the game is won by capturing the last opposing checker.
+     * Positions with black to move are stored as the board turned around with the
+     * colours swapped, so only red to move is kept. Positions are grouped by how
+     * many men and kings each team has, and within a group each kind of checker is
+     * numbered by the combination of dark squares it stands on, so a lookup is one
+     * read at a computed offset.
+     */
+    public static class EndgameDatabase implements Closeable {
+        /*
+         * The board the database covers and the number of dark squares on it
+         */
+        public static final int BOARD_SIZE = 8;
+        private static final int DARK_SQUARES = 32;
+
+        /*
+         * The most checkers a database can be built for. Five already needs around 500
+         * MB on disk and several GB of memory to build
+         */
+        public static final int MAX_PIECES = 5;
+
+        /*
+         * Returned for positions the database does not cover, and stored for the
+         * numbers that do not describe a real position
+         */
+        public static final int UNKNOWN = Short.MIN_VALUE;
+        public static final int DRAW = 0;
+
+        private static final byte[] MAGIC = { 'C', 'K', 'T', 'B' };
+        private static final int HEADER_BYTES = 8;
+
+        /*
+         * Groups are identified by their counts of red men, red kings, black men and
+         * black kings, written as the digits of a base MAX_PIECES + 1 number
+         */
+        private static final int COUNT_BASE = MAX_PIECES + 1;
+        private static final int GROUPS = COUNT_BASE * COUNT_BASE * COUNT_BASE * COUNT_BASE;
+
+        /*
+         * The positions handed to a thread at a time while building
+         */
+        private static final int CHUNK_BITS = 14;
+
+        private static final long[][] BINOMIALS = binomials();
+
+        /*
+         * The dark squares of the rows where each team's men are crowned
+         */
+        private static final long RED_CROWN_ROW = 0xFFL;
+        private static final long BLACK_CROWN_ROW = 0xFFL << 56;
+
+        public final int maxPieces;
+        private final long[] offsets;
+        private final FileChannel channel;
+        private final ShortBuffer values;
+
+        /**
+         * Opens a database for reading
+         * 
+         * @param path the database file
+         * @throws IOException if the file cannot be read or is not a database
+         */
+        public EndgameDatabase(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            MappedByteBuffer file = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.channel.size());
+            for (byte b : MAGIC) {
+                if (file.remaining() < HEADER_BYTES || file.get() != b) {
+                    close();
+                    throw new IOException(path + " is not an endgame database");
+                }
+            }
+            this.maxPieces = file.get();
+            this.offsets = offsets(this.maxPieces);
+            this.values = file.position(HEADER_BYTES).slice().asShortBuffer();
+        }
+
+        /**
+         * Looks up the exact result of a position
+         * 
+         * @param board the position
+         * @param team  the team to move
+         * @return the plies to a win for the team (positive) or to its loss (negative),
+         *         {@link #DRAW}, or {@link #UNKNOWN} if the position is not covered
+         */
+        public int probe(BitBoard board, Team team) {
+            if (board.boardSize != BOARD_SIZE) {
+                return UNKNOWN;
+            }
+            long red = board.red;
+            long black = board.black;
+            long kings = board.kings;
+            if (team == Team.BLACK) {
+                red = Long.reverse(board.black);
+                black = Long.reverse(board.red);
+                kings = Long.reverse(kings);
+            }
+            int group = groupOf(red, black, kings);
+            if (group < 0 || this.offsets[group] < 0) {
+                return UNKNOWN;
+            }
+            return this.values.get((int) (this.offsets[group] + index(red, black, kings, group)));
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+
+        /**
+         * Describes a result for the console
+         * 
+         * @param result a result returned by {@link #probe}
+         * @return the result in words
+         */
+        public static String describe(int result) {
+            if (result == DRAW) {
+                return "drawn";
+            }
+            return (result > 0 ? "won in " : "lost in ") + Math.abs(result) + " plies";
+        }
+
+        /**
+         * Solves every position with up to the given number of checkers and writes the
+         * results to a file. Groups are solved in an order where every position a
+         * group can reach by capturing or crowning has already been solved, and each
+         * group is solved by repeatedly finding the positions decided one ply later
+         * than the last, spread across threads
+         * 
+         * @param path      the file to write
+         * @param maxPieces the most checkers in a position, from 2 to MAX_PIECES
+         * @param threads   the number of threads to solve with
+         * @param progress  where to report each group as it is solved
+         * @throws IOException if the file cannot be written
+         */
+        public static void build(Path path, int maxPieces, int threads, PrintStream progress) throws IOException {
+            if (maxPieces < 2 || maxPieces > MAX_PIECES) {
+                throw new IllegalArgumentException("Endgame databases hold from 2 to " + MAX_PIECES + " checkers");
+            }
+            int[] order = groupOrder(maxPieces);
+            long[] offsets = offsets(maxPieces);
+            long entries = 0;
+            for (int group : order) {
+                entries += groupSize(group);
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        HEADER_BYTES + entries * Short.BYTES);
+                file.put(MAGIC).put((byte) maxPieces);
+                ShortBuffer values = file.position(HEADER_BYTES).slice().asShortBuffer();
+                for (int i = 0; i < order.length; i++) {
+                    // A group is solved together with its mirror image, which its moves lead to
+                    int last = i;
+                    if (i + 1 < order.length && order[i + 1] == mirror(order[i])) {
+                        last = i + 1;
+                    }
+                    long start = System.nanoTime();
+                    long first = offsets[order[i]];
+                    int size = (int) (offsets[order[last]] + groupSize(order[last]) - first);
+                    Solver solver = new Solver(values, offsets, order[i], (int) first, size, threads);
+                    int plies = solver.solve();
+                    progress.printf("%-24s %9d positions, longest %3d plies, %6d ms%n", describeGroup(order[i])
+                            + (last > i ? " & mirror" : ""), size, plies, (System.nanoTime() - start) / 1_000_000);
+                    i = last;
+                }
+                file.force();
+            }
+        }
+
+        /**
+         * Solves one group and its mirror image, which are stored side by side
+         */
+        private static final class Solver {
+            private final ShortBuffer values;
+            private final long[] offsets;
+            private final int group;
+            private final int first;
+            private final int size;
+            private final int threads;
+
+            /*
+             * For each position: the quickest win reached by capturing or crowning, and
+             * the slowest loss if every such turn loses, or -1 if one of them does not
+             */
+            private final short[] outsideWin;
+            private final short[] outsideLoss;
+
+            /*
+             * The positions reached by turns that stay in the group, stored per chunk
+             */
+            private final int[][] chunkSuccessors;
+            private final int[] successorStart;
+            private final byte[] successorCount;
+
+            /*
+             * The longest result found so far, which bounds how many plies must be tried
+             */
+            private final AtomicLong longest = new AtomicLong();
+
+            Solver(ShortBuffer values, long[] offsets, int group, int first, int size, int threads) {
+                this.values = values;
+                this.offsets = offsets;
+                this.group = group;
+                this.first = first;
+                this.size = size;
+                this.threads = threads;
+                this.outsideWin = new short[size];
+                this.outsideLoss = new short[size];
+                this.chunkSuccessors = new int[(size + (1 << CHUNK_BITS) - 1) >>> CHUNK_BITS][];
+                this.successorStart = new int[size];
+                this.successorCount = new byte[size];
+            }
+
+            /*
+             * Returns the longest result in the group
+             */
+            int solve() {
+                forEachChunk(this::link);
+                for (int ply = 1;; ply++) {
+                    int currentPly = ply;
+                    long decided = forEachChunk((chunk, game, turns) -> decide(chunk, currentPly));
+                    if (decided == 0 && ply > this.longest.get()) {
+                        return (int) this.longest.get();
+                    }
+                }
+            }
+
+            /*
+             * Generates the turns of every position in a chunk, noting the results of
+             * those leaving the group and where the rest lead
+             */
+            private long link(int chunk, Game game, TurnList turns) {
+                int begin = chunk << CHUNK_BITS;
+                int end = Math.min(this.size, begin + (1 << CHUNK_BITS));
+                int[] successors = new int[(end - begin) * 4];
+                int count = 0;
+                for (int p = begin; p < end; p++) {
+                    int global = this.first + p;
+                    if (!setUp(game, global)) {
+                        this.values.put(global, (short) UNKNOWN);
+                        continue;
+                    }
+                    this.successorStart[p] = count;
+                    int win = 0;
+                    int loss = 0;
+                    turns.generate(game, Team.RED);
+                    for (int i = 0; i < Math.max(1, turns.count); i++) {
+                        int next;
+                        if (turns.count == 0) {
+                            // Red passes only when it has no turn at all
+                            next = blackToMove(game.board);
+                        } else {
+                            turns.make(game, i);
+                            next = game.isComplete ? -1 : blackToMove(game.board);
+                            turns.unmake(game, i);
+                        }
+                        if (next == -1) {
+                            win = 1;
+                        } else if (next >= this.first && next < this.first + this.size) {
+                            if (count == successors.length) {
+                                successors = Arrays.copyOf(successors, count * 2);
+                            }
+                            successors[count++] = next - this.first;
+                            this.successorCount[p]++;
+                        } else {
+                            int result = this.values.get(next);
+                            if (result < 0) {
+                                win = win == 0 ? 1 - result : Math.min(win, 1 - result);
+                            } else if (result == DRAW || loss < 0) {
+                                loss = -1;
+                            } else {
+                                loss = Math.max(loss, result);
+                            }
+                        }
+                    }
+                    this.outsideWin[p] = (short) win;
+                    this.outsideLoss[p] = (short) loss;
+                    this.values.put(global, (short) DRAW);
+                    longest(Math.max(win, loss + 1));
+                }
+                this.chunkSuccessors[chunk] = successors;
+                return 0;
+            }
+
+            /*
+             * Decides the undecided positions of a chunk that are won in exactly the given
+             * number of plies, and any that every turn now loses
+             */
+            private long decide(int chunk, int ply) {
+                int begin = chunk << CHUNK_BITS;
+                int end = Math.min(this.size, begin + (1 << CHUNK_BITS));
+                int[] successors = this.chunkSuccessors[chunk];
+                long decided = 0;
+                for (int p = begin; p < end; p++) {
+                    if (this.values.get(this.first + p) != DRAW) {
+                        continue;
+                    }
+                    boolean won = this.outsideWin[p] != 0 && this.outsideWin[p] <= ply;
+                    boolean lost = this.outsideWin[p] == 0 && this.outsideLoss[p] >= 0;
+                    int slowest = this.outsideLoss[p];
+                    int start = this.successorStart[p];
+                    for (int i = start; !won && i < start + this.successorCount[p]; i++) {
+                        int result = this.values.get(this.first + successors[i]);
+                        // Losses decided during this pass are left for the next, which keeps
+                        // every win the quickest possible
+                        if (result < 0 && -result < ply) {
+                            won = true;
+                        } else if (result > 0) {
+                            slowest = Math.max(slowest, result);
+                        } else {
+                            lost = false;
+                        }
+                    }
+                    if (won) {
+                        this.values.put(this.first + p, (short) ply);
+                        longest(ply);
+                        decided++;
+                    } else if (lost) {
+                        this.values.put(this.first + p, (short) -(slowest + 1));
+                        longest(slowest + 1);
+                        decided++;
+                    }
+                }
+                return decided;
+            }
+
+            private void longest(int plies) {
+                this.longest.accumulateAndGet(plies, Math::max);
+            }
+
+            /*
+             * Places the position numbered by an entry on the game, returning false if the
+             * number does not describe a real position
+             */
+            private boolean setUp(Game game, int global) {
+                int group = global - this.first < groupSize(this.group) ? this.group : mirror(this.group);
+                long index = global - this.offsets[group];
+                long blackKings = unrank(index % BINOMIALS[DARK_SQUARES][count(group, 3)], count(group, 3));
+                index /= BINOMIALS[DARK_SQUARES][count(group, 3)];
+                long blackMen = unrank(index % BINOMIALS[DARK_SQUARES][count(group, 2)], count(group, 2));
+                index /= BINOMIALS[DARK_SQUARES][count(group, 2)];
+                long redKings = unrank(index % BINOMIALS[DARK_SQUARES][count(group, 1)], count(group, 1));
+                index /= BINOMIALS[DARK_SQUARES][count(group, 1)];
+                long redMen = unrank(index, count(group, 0));
+                long all = redMen | redKings | blackMen | blackKings;
+                if (Long.bitCount(all) != count(group, 0) + count(group, 1) + count(group, 2) + count(group, 3)
+                        || (redMen & RED_CROWN_ROW) != 0L || (blackMen & BLACK_CROWN_ROW) != 0L) {
+                    return false;
+                }
+                game.rewind();
+                long occupied = game.board.occupied();
+                while (occupied != 0L) {
+                    game.board.remove(Long.numberOfTrailingZeros(occupied));
+                    occupied &= occupied - 1;
+                }
+                game.isComplete = false;
+                place(game, redMen, Team.RED, false);
+                place(game, redKings, Team.RED, true);
+                place(game, blackMen, Team.BLACK, false);
+                place(game, blackKings, Team.BLACK, true);
+                return true;
+            }
+
+            /*
+             * Gets the entry of a board with black to move
+             */
+            private int blackToMove(BitBoard board) {
+                long red = Long.reverse(board.black);
+                long black = Long.reverse(board.red);
+                long kings = Long.reverse(board.kings);
+                int group = groupOf(red, black, kings);
+                return (int) (this.offsets[group] + index(red, black, kings, group));
+            }
+
+            /*
+             * Runs a task on every chunk across the solver's threads, each thread with its
+             * own game and turn list, and sums what the tasks return
+             */
+            private long forEachChunk(ChunkTask task) {
+                AtomicLong nextChunk = new AtomicLong();
+                ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+                List<Future<Long>> workers = new ArrayList<>();
+                for (int i = 0; i < this.threads; i++) {
+                    workers.add(pool.submit(() -> {
+                        Game game = new Game(BOARD_SIZE);
+                        TurnList turns = new TurnList();
+                        long total = 0;
+                        long chunk;
+                        while ((chunk = nextChunk.getAndIncrement()) < this.chunkSuccessors.length) {
+                            total += task.run((int) chunk, game, turns);
+                        }
+                        return total;
+                    }));
+                }
+                long total = 0;
+                try {
+                    for (Future<Long> worker : workers) {
+                        total += worker.get();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Building the endgame database was interrupted", e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("An endgame database thread failed", e.getCause());
+                } finally {
+                    pool.shutdown();
+                }
+                return total;
+            }
+        }
+
+        private interface ChunkTask {
+            long run(int chunk, Game game, TurnList turns);
+        }
+
+        private static void place(Game game, long pieces, Team team, boolean isKing) {
+            while (pieces != 0L) {
+                game.board.place(Long.numberOfTrailingZeros(pieces), team, isKing);
+                pieces &= pieces - 1;
+            }
+        }
+
+        /*
+         * Gets the group of a board with red to move, or -1 if no database could hold it
+         */
+        private static int groupOf(long red, long black, long kings) {
+            int redMen = Long.bitCount(red & ~kings);
+            int redKings = Long.bitCount(red & kings);
+            int blackMen = Long.bitCount(black & ~kings);
+            int blackKings = Long.bitCount(black & kings);
+            if (redMen + redKings + blackMen + blackKings > MAX_PIECES) {
+                return -1;
+            }
+            return ((redMen * COUNT_BASE + redKings) * COUNT_BASE + blackMen) * COUNT_BASE + blackKings;
+        }
+
+        /*
+         * Gets one of the counts making up a group: red men, red kings, black men or
+         * black kings
+         */
+        private static int count(int group, int kind) {
+            for (int i = kind; i < 3; i++) {
+                group /= COUNT_BASE;
+            }
+            return group % COUNT_BASE;
+        }
+
+        private static int mirror(int group) {
+            return ((count(group, 2) * COUNT_BASE + count(group, 3)) * COUNT_BASE + count(group, 0)) * COUNT_BASE
+                    + count(group, 1);
+        }
+
+        private static String describeGroup(int group) {
+            return count(group, 0) + " men " + count(group, 1) + " kings v " + count(group, 2) + " men "
+                    + count(group, 3) + " kings";
+        }
+
+        private static long groupSize(int group) {
+            return BINOMIALS[DARK_SQUARES][count(group, 0)] * BINOMIALS[DARK_SQUARES][count(group, 1)]
+                    * BINOMIALS[DARK_SQUARES][count(group, 2)] * BINOMIALS[DARK_SQUARES][count(group, 3)];
+        }
+
+        /*
+         * Lists every group with up to the given number of checkers in the order they
+         * are solved and stored: fewer checkers first, then fewer men, with each group
+         * next to its mirror image
+         */
+        private static int[] groupOrder(int maxPieces) {
+            List<Integer> groups = new ArrayList<>();
+            for (int group = 0; group < GROUPS; group++) {
+                int red = count(group, 0) + count(group, 1);
+                int black = count(group, 2) + count(group, 3);
+                if (red > 0 && black > 0 && red + black <= maxPieces) {
+                    groups.add(group);
+                }
+            }
+            groups.sort((a, b) -> {
+                int pieces = Integer.compare(count(a, 0) + count(a, 1) + count(a, 2) + count(a, 3),
+                        count(b, 0) + count(b, 1) + count(b, 2) + count(b, 3));
+                if (pieces != 0) {
+                    return pieces;
+                }
+                int men = Integer.compare(count(a, 0) + count(a, 2), count(b, 0) + count(b, 2));
+                if (men != 0) {
+                    return men;
+                }
+                int pair = Integer.compare(Math.min(a, mirror(a)), Math.min(b, mirror(b)));
+                return pair != 0 ? pair : Integer.compare(a, b);
+            });
+            return groups.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        /*
+         * Gets where each group starts in the file, or -1 for groups it does not hold
+         */
+        private static long[] offsets(int maxPieces) {
+            long[] offsets = new long[GROUPS];
+            Arrays.fill(offsets, -1L);
+            long offset = 0;
+            for (int group : groupOrder(maxPieces)) {
+                offsets[group] = offset;
+                offset += groupSize(group);
+            }
+            return offsets;
+        }
+
+        /*
+         * Numbers a position within its group by the combination of dark squares each
+         * kind of checker stands on
+         */
+        private static long index(long red, long black, long kings, int group) {
+            long index = rank(red & ~kings);
+            index = index * BINOMIALS[DARK_SQUARES][count(group, 1)] + rank(red & kings);
+            index = index * BINOMIALS[DARK_SQUARES][count(group, 2)] + rank(black & ~kings);
+            return index * BINOMIALS[DARK_SQUARES][count(group, 3)] + rank(black & kings);
+        }
+
+        /*
+         * Numbers a set of squares in colex order, where each dark square is half of
+         * its board square
+         */
+        private static long rank(long pieces) {
+            long rank = 0;
+            for (int i = 1; pieces != 0L; i++) {
+                rank += BINOMIALS[Long.numberOfTrailingZeros(pieces) >>> 1][i];
+                pieces &= pieces - 1;
+            }
+            return rank;
+        }
+
+        private static long unrank(long rank, int pieces) {
+            long squares = 0L;
+            int dark = DARK_SQUARES - 1;
+            for (int i = pieces; i >= 1; i--) {
+                while (BINOMIALS[dark][i] > rank) {
+                    dark--;
+                }
+                rank -= BINOMIALS[dark][i];
+                int row = dark / 4;
+                squares |= 1L << (row * BOARD_SIZE + 2 * (dark % 4) + row % 2);
+                dark--;
+            }
+            return squares;
+        }
+
+        private static long[][] binomials() {
+            long[][] binomials = new long[DARK_SQUARES + 1][MAX_PIECES + 1];
+            for (int n = 0; n <= DARK_SQUARES; n++) {
+                binomials[n][0] = 1;
+                for (int k = 1; k <= MAX_PIECES && k <= n; k++) {
+                    binomials[n][k] = binomials[n - 1][k - 1] + (k <= n - 1 ? binomials[n - 1][k] : 0);
+                }
+            }
+            return binomials;
+        }
+    }
+
+    /**
+     * Turns to play in positions seen often in a game log, keyed by position hash
+     * and read through a memory mapped open addressing table, so a lookup is a hash
+     * and usually a single read
+     */
+    public static class OpeningBook implements Closeable {
+        private static final byte[] MAGIC = { 'C', 'K', 'O', 'B' };
+        private static final int HEADER_BYTES = 8;
+
+        /*
+         * Each slot holds the position hash, then the turn to play and how many games
+         * it was played in. A hash of 0 marks an empty slot
+         */
+        private static final int SLOT_BYTES = 16;
+
+        /*
+         * How many games a position must appear in before the book holds it
+         */
+        private static final int MIN_GAMES = 2;
+
+        /*
+         * Returned when the book holds no turn for a position
+         */
+        public static final int NO_TURN = -1;
+
+        private final FileChannel channel;
+        private final MappedByteBuffer slots;
+        private final int mask;
+
+        /**
+         * Opens a book for reading
+         * 
+         * @param path the book file
+         * @throws IOException if the file cannot be read or is not a book
+         */
+        public OpeningBook(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            MappedByteBuffer file = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.channel.size());
+            for (byte b : MAGIC) {
+                if (file.remaining() < HEADER_BYTES || file.get() != b) {
+                    close();
+                    throw new IOException(path + " is not an opening book");
+                }
+            }
+            this.mask = file.getInt() - 1;
+            this.slots = file.position(HEADER_BYTES).slice();
+        }
+
+        /**
+         * Finds the turn to play in a position
+         * 
+         * @param key the position's hash for the team to move
+         * @return the id the turn has in a TurnList generated for the position, or
+         *         {@link #NO_TURN}
+         */
+        public int probe(long key) {
+            for (int slot = slotOf(key, this.mask);; slot = (slot + 1) & this.mask) {
+                long stored = this.slots.getLong(slot * SLOT_BYTES);
+                if (stored == key) {
+                    return this.slots.getInt(slot * SLOT_BYTES + Long.BYTES);
+                }
+                if (stored == 0L) {
+                    return NO_TURN;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+
+        /**
+         * Builds a book from the opening turns of every game in a log. For each
+         * position the book keeps the turn that scored best for the team playing it,
+         * counting a win as 2 and a draw as 1, preferring the turn played more often
+         * when scores tie
+         * 
+         * @param log   the game log to learn from
+         * @param book  the book file to write
+         * @param turns the number of turns of each game to learn from
+         * @return the number of positions in the book
+         * @throws IOException if either file cannot be used
+         */
+        public static int build(Path log, Path book, int turns) throws IOException {
+            // Games and points for each turn played in each position
+            Map<Long, Map<Integer, long[]>> positions = new HashMap<>();
+            GameRecord record = new GameRecord();
+            TurnList available = new TurnList();
+            try (GameRecord.LogReader reader = new GameRecord.LogReader(log)) {
+                while (reader.next(record)) {
+                    Game game = record.startPosition();
+                    Team winner = record.replay(game.copy());
+                    for (int turn = 0; turn < Math.min(turns, record.turnCount); turn++) {
+                        Team team = record.teamOf(turn);
+                        int id = idOf(record, turn, game, team, available);
+                        if (id == NO_TURN) {
+                            // Skips and turns moving the opponent's checkers are left out of the book
+                            break;
+                        }
+                        long[] stats = positions.computeIfAbsent(game.board.hash(team), key -> new HashMap<>())
+                                .computeIfAbsent(id, key -> new long[2]);
+                        stats[0]++;
+                        stats[1] += winner == team ? 2 : winner == null ? 1 : 0;
+                        available.make(game, available.indexOf(id));
+                    }
+                }
+            }
+            // The turn to play and its games for each position worth keeping
+            Map<Long, long[]> chosen = new HashMap<>();
+            for (Map.Entry<Long, Map<Integer, long[]>> position : positions.entrySet()) {
+                int bestTurn = NO_TURN;
+                long[] best = null;
+                for (Map.Entry<Integer, long[]> turn : position.getValue().entrySet()) {
+                    long[] stats = turn.getValue();
+                    // Compare points per game without dividing
+                    long comparison = best == null ? 1 : stats[1] * best[0] - best[1] * stats[0];
+                    if (comparison > 0 || (comparison == 0 && stats[0] > best[0])) {
+                        bestTurn = turn.getKey();
+                        best = stats;
+                    }
+                }
+                if (best[0] >= MIN_GAMES && position.getKey() != 0L) {
+                    chosen.put(position.getKey(), new long[] { bestTurn, best[0] });
+                }
+            }
+            // Keep the table at most half full so probes stay short
+            int capacity = Integer.highestOneBit(Math.max(1, chosen.size()) * 2 - 1) << 1;
+            ByteBuffer slots = ByteBuffer.allocate(HEADER_BYTES + capacity * SLOT_BYTES);
+            slots.put(MAGIC).putInt(capacity);
+            for (Map.Entry<Long, long[]> position : chosen.entrySet()) {
+                long key = position.getKey();
+                int slot = slotOf(key, capacity - 1);
+                while (slots.getLong(HEADER_BYTES + slot * SLOT_BYTES) != 0L) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                slots.putLong(HEADER_BYTES + slot * SLOT_BYTES, key)
+                        .putInt(HEADER_BYTES + slot * SLOT_BYTES + Long.BYTES, (int) position.getValue()[0])
+                        .putInt(HEADER_BYTES + slot * SLOT_BYTES + Long.BYTES + Integer.BYTES,
+                                (int) position.getValue()[1]);
+            }
+            Files.write(book, slots.array());
+            return chosen.size();
+        }
+
+        /*
+         * Finds the id of a recorded turn among the turns available to the team, or
+         * NO_TURN if the team could not have played it
+         */
+        private static int idOf(GameRecord record, int turn, Game game, Team team, TurnList available) {
+            available.generate(game, team);
+            int start = record.turnStart(turn);
+            int length = record.turnLength(turn);
+            for (int i = 0; i < available.count; i++) {
+                if (available.length(i) != length) {
+                    continue;
+                }
+                boolean matches = true;
+                for (int hop = 0; hop < length && matches; hop++) {
+                    matches = available.hop(i, hop) == record.hop(start + hop);
+                }
+                if (matches) {
+                    return available.id(i);
+                }
+            }
+            return NO_TURN;
+        }
+
+        private static int slotOf(long key, int mask) {
+            return (int) (key ^ (key >>> 32)) & mask;
+        }
+    }
 }
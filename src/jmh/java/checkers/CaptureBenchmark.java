@@ -0,0 +1,68 @@
+package checkers;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import checkers.Main.Checker;
+import checkers.Main.Game;
+import checkers.Main.Location;
+import checkers.Main.Team;
+
+/**
+ * Playing the longest capture sequence available to the team to move through the
+ * console game's capture, then taking it back, on the positions that have one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CaptureBenchmark {
+    @Param({ "midgame", "kings" })
+    public String position;
+
+    private Game game;
+    private Checker checker;
+    private List<Location> chain = List.of();
+
+    @Setup
+    public void setUp() {
+        this.game = Positions.game(this.position);
+        Team team = Positions.sideToMove(this.position);
+        for (Checker candidate : this.game.getCheckers()) {
+            if (candidate.team == team) {
+                for (List<Location> captures : Main.getCaptureChains(this.game, candidate)) {
+                    if (captures.size() > this.chain.size()) {
+                        this.checker = candidate;
+                        this.chain = captures;
+                    }
+                }
+            }
+        }
+        if (this.checker == null) {
+            throw new IllegalStateException("The " + this.position + " position has no capture");
+        }
+    }
+
+    @Benchmark
+    public int captureChain() {
+        Main.capture(this.game, this.checker, this.chain);
+        for (int i = 0; i < this.chain.size(); i++) {
+            this.game.unmakeMove();
+        }
+        return this.chain.size();
+    }
+}
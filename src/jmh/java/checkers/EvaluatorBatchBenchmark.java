@@ -0,0 +1,56 @@
+package checkers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import checkers.Main.Evaluator;
+import checkers.Main.Game;
+
+/**
+ * Scoring positions in batches, which only boards packed into masks support. The
+ * score counts positions, so it compares directly with
+ * {@link EvaluatorBenchmark#evaluate()}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EvaluatorBatchBenchmark {
+    private static final int BATCH_SIZE = 1024;
+
+    @Param({ "opening", "midgame", "kings", "start8" })
+    public String position;
+
+    private final Evaluator evaluator = new Evaluator();
+    private Evaluator.Batch batch;
+
+    @Setup
+    public void setUp() {
+        Game game = Positions.game(this.position);
+        this.batch = new Evaluator.Batch(game.boardSize, BATCH_SIZE);
+        while (!this.batch.isFull()) {
+            this.batch.add(game.board);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int evaluateBatch() {
+        this.evaluator.evaluate(this.batch);
+        return this.batch.scores[0];
+    }
+}
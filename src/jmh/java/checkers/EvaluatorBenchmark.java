@@ -0,0 +1,48 @@
+package checkers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import checkers.Main.Evaluator;
+import checkers.Main.Game;
+import checkers.Main.Team;
+
+/**
+ * Scoring one position with the evaluator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EvaluatorBenchmark {
+    @Param({ "opening", "midgame", "kings", "start8", "start10", "start12", "start16" })
+    public String position;
+
+    private final Evaluator evaluator = new Evaluator();
+    private Game game;
+    private Team team;
+
+    @Setup
+    public void setUp() {
+        this.game = Positions.game(this.position);
+        this.team = Positions.sideToMove(this.position);
+    }
+
+    @Benchmark
+    public int evaluate() {
+        return this.evaluator.evaluate(this.game, this.team);
+    }
+}
@@ -0,0 +1,74 @@
+package checkers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import checkers.Main.Game;
+import checkers.Main.Team;
+
+/**
+ * Generating moves and captures, both as packed moves and through the
+ * collections the console game lists them with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MoveGenerationBenchmark {
+    @Param({ "opening", "midgame", "kings", "start8", "start10", "start12", "start16" })
+    public String position;
+
+    private Game game;
+    private Team team;
+    private int[] moves;
+
+    @Setup
+    public void setUp() {
+        this.game = Positions.game(this.position);
+        this.team = Positions.sideToMove(this.position);
+        this.moves = this.game.board.newMoveBuffer();
+    }
+
+    @Benchmark
+    public int generateMoves() {
+        return this.game.board.generateMoves(this.team, false, this.moves);
+    }
+
+    @Benchmark
+    public int generateCaptures() {
+        return this.game.board.generateMoves(this.team, true, this.moves);
+    }
+
+    @Benchmark
+    public boolean hasCapture() {
+        return this.game.board.hasCapture(this.team);
+    }
+
+    @Benchmark
+    public int getValidMovesForTeamMoves() {
+        return Main.getValidMovesForTeam(this.game, false, this.team).size();
+    }
+
+    @Benchmark
+    public int getValidMovesForTeamCaptures() {
+        return Main.getValidMovesForTeam(this.game, true, this.team).size();
+    }
+
+    @Benchmark
+    public int getLocationToCheckerMapping() {
+        return this.game.getLocationToCheckerMapping().size();
+    }
+}
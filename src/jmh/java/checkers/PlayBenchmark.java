@@ -0,0 +1,79 @@
+package checkers;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import checkers.Main.Game;
+import checkers.Main.Team;
+import checkers.Main.TurnList;
+
+/**
+ * Playing a random game out from the position with the turn lists the simulator
+ * and engine use. Each invocation takes its turns back, so every invocation
+ * starts from the same position.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PlayBenchmark {
+    /*
+     * The longest a random playout may run before it is abandoned
+     */
+    private static final int MAX_PLAYOUT_PLIES = 200;
+
+    @Param({ "opening", "midgame", "kings", "start8", "start10", "start12", "start16" })
+    public String position;
+
+    private Game game;
+    private Team team;
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final TurnList[] turnLists = new TurnList[MAX_PLAYOUT_PLIES];
+
+    @Setup
+    public void setUp() {
+        this.game = Positions.game(this.position);
+        this.team = Positions.sideToMove(this.position);
+        for (int i = 0; i < this.turnLists.length; i++) {
+            this.turnLists[i] = new TurnList();
+        }
+    }
+
+    /**
+     * Plays random turns until the game ends or the ply limit is reached, then takes
+     * every turn back
+     */
+    @Benchmark
+    public int randomPlayout() {
+        int start = this.game.movesMade();
+        int plies = 0;
+        Team next = this.team;
+        while (!this.game.isComplete && plies < MAX_PLAYOUT_PLIES) {
+            TurnList turns = this.turnLists[plies];
+            turns.generate(this.game, next);
+            if (turns.count() > 0) {
+                turns.make(this.game, this.random.nextInt(turns.count()));
+            }
+            next = Main.opponentOf(next);
+            plies++;
+        }
+        while (this.game.movesMade() > start) {
+            this.game.unmakeMove();
+        }
+        return plies;
+    }
+}
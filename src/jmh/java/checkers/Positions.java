@@ -0,0 +1,56 @@
+package checkers;
+
+import checkers.Main.Fen;
+import checkers.Main.Game;
+import checkers.Main.Team;
+
+/**
+ * The positions the benchmarks run against, by the name given as their
+ * {@code position} parameter: an opening, a midgame and a king-heavy position on
+ * the standard board, and the opening of each board size, named start and the
+ * size, to show how each benchmark scales with the board.
+ */
+final class Positions {
+    private static final String MIDGAME = "W:W17,21,22,24,26,28,29,30,31:B2,3,4,5,6,8,12,13,14,15,K32";
+    private static final String KINGS = "W:W5,K6,K7,13,17,24,28:B11,19,20,K25,K32";
+
+    private Positions() {
+    }
+
+    /**
+     * @param name the name of a position
+     * @return a new game holding the position
+     */
+    static Game game(String name) {
+        switch (name) {
+            case "opening":
+                return Fen.parse(Fen.STANDARD_START);
+            case "midgame":
+                return Fen.parse(MIDGAME);
+            case "kings":
+                return Fen.parse(KINGS);
+            default:
+                if (!name.startsWith("start")) {
+                    throw new IllegalArgumentException("Unknown position " + name);
+                }
+                Game game = new Game(Integer.parseInt(name.substring("start".length())));
+                game.setUp();
+                return game;
+        }
+    }
+
+    /**
+     * @param name the name of a position
+     * @return the team to move in the position
+     */
+    static Team sideToMove(String name) {
+        switch (name) {
+            case "midgame":
+                return Fen.sideToMove(MIDGAME);
+            case "kings":
+                return Fen.sideToMove(KINGS);
+            default:
+                return Team.RED;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package checkers;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import checkers.Main.Game;
+import checkers.Main.Renderer;
+import checkers.Main.Team;
+
+/**
+ * Drawing the board, through the console game's original printBoard and through
+ * the renderer in each of its plain and FEN modes. Output goes nowhere, so only
+ * building it is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RenderBenchmark {
+    @Param({ "opening", "midgame", "kings", "start8", "start10", "start12", "start16" })
+    public String position;
+
+    private Game game;
+    private Team team;
+    private Renderer plain;
+    private Renderer fen;
+    private PrintStream console;
+
+    @Setup
+    public void setUp() {
+        this.game = Positions.game(this.position);
+        this.team = Positions.sideToMove(this.position);
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        this.plain = new Renderer(discard, Renderer.Mode.PLAIN);
+        this.fen = new Renderer(discard, Renderer.Mode.FEN);
+        // printBoard writes to standard out
+        this.console = System.out;
+        System.setOut(discard);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(this.console);
+    }
+
+    @Benchmark
+    public void printBoard() {
+        this.game.printBoard();
+    }
+
+    @Benchmark
+    public void renderPlain() {
+        this.plain.board(this.game, this.team).flush();
+    }
+
+    @Benchmark
+    public void renderFen() {
+        this.fen.board(this.game, this.team).flush();
+    }
+}
@@ -0,0 +1,80 @@
+package checkers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import checkers.Main.Game;
+import checkers.Main.GameRecord;
+import checkers.Main.GameResult;
+import checkers.Main.Simulator;
+import checkers.Main.Team;
+
+/**
+ * Checks that replaying a game log ends each game the way it ended when played.
+ */
+class GameRecordTest {
+    private static GameRecord skips(int turns) {
+        GameRecord record = new GameRecord();
+        record.start(new Game(), Team.RED);
+        for (int i = 0; i < turns; i++) {
+            record.endTurn();
+        }
+        return record;
+    }
+
+    @Test
+    void replayEndsDrawnGames() {
+        Game game = new Game();
+        GameRecord record = skips(5);
+        record.load(game);
+        assertNull(record.replay(game));
+        assertEquals(GameResult.REPETITION, game.result);
+    }
+
+    @Test
+    void replayRejectsTurnsAfterADraw() {
+        GameRecord record = skips(6);
+        assertThrows(IllegalStateException.class, () -> record.replay(record.startPosition()));
+    }
+
+    @Test
+    void replayMatchesSimulatedResults(@TempDir Path directory) throws IOException {
+        Path log = directory.resolve("games.log");
+        // Plies enough that no game is abandoned unfinished, which the simulator
+        // scores as a draw
+        Simulator simulator = new Simulator(Simulator.PolicyType.RANDOM, Simulator.PolicyType.RANDOM, 5000, 1, 1);
+        Simulator.Stats stats;
+        try (OutputStream out = GameRecord.append(log)) {
+            simulator.recordTo(out);
+            stats = simulator.run(100, 2);
+        }
+        long redWins = 0;
+        long blackWins = 0;
+        long draws = 0;
+        GameRecord record = new GameRecord();
+        try (GameRecord.LogReader reader = new GameRecord.LogReader(log)) {
+            while (reader.next(record)) {
+                Game game = record.startPosition();
+                Team winner = record.replay(game);
+                if (winner == Team.RED) {
+                    redWins++;
+                } else if (winner == Team.BLACK) {
+                    blackWins++;
+                } else if (game.result != null) {
+                    draws++;
+                }
+            }
+        }
+        assertEquals(stats.redWins, redWins);
+        assertEquals(stats.blackWins, blackWins);
+        assertEquals(stats.draws, draws);
+    }
+}
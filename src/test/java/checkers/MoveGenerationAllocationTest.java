@@ -0,0 +1,77 @@
+package checkers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import checkers.Main.BitBoard;
+import checkers.Main.Fen;
+import checkers.Main.Game;
+import checkers.Main.Metrics;
+import checkers.Main.Team;
+
+/**
+ * Checks that generating moves allocates nothing once warmed up, for both teams,
+ * moves and captures, on the positions the benchmarks run against. Each case is
+ * run until the JIT has compiled it, then the bytes the thread allocates over many
+ * more calls must be 0.
+ */
+class MoveGenerationAllocationTest {
+    /*
+     * The calls run while allocations are checked, after the same calls have been
+     * run enough times for the JIT to compile both generateMoves and the loop
+     * calling it, so the loop cannot be replaced part way through the measurement
+     */
+    private static final int MEASURED_CALLS = 100_000;
+    private static final int WARMUP_ROUNDS = 20;
+
+    static List<Arguments> cases() {
+        List<Arguments> cases = new ArrayList<>();
+        List<Object[]> positions = new ArrayList<>();
+        positions.add(new Object[] { "opening", Fen.parse(Fen.STANDARD_START) });
+        positions.add(new Object[] { "midgame",
+                Fen.parse("W:W17,21,22,24,26,28,29,30,31:B2,3,4,5,6,8,12,13,14,15,K32") });
+        positions.add(new Object[] { "kings", Fen.parse("W:W5,K6,K7,13,17,24,28:B11,19,20,K25,K32") });
+        for (int boardSize : new int[] { 8, 10, 12, 16 }) {
+            Game game = new Game(boardSize);
+            game.setUp();
+            positions.add(new Object[] { "start" + boardSize, game });
+        }
+        for (Object[] position : positions) {
+            for (Team team : Team.values()) {
+                for (boolean isCapture : new boolean[] { false, true }) {
+                    cases.add(Arguments.of(position[0], ((Game) position[1]).board, team, isCapture));
+                }
+            }
+        }
+        return cases;
+    }
+
+    @ParameterizedTest(name = "{0} {2} captures={3}")
+    @MethodSource("cases")
+    void generateMovesDoesNotAllocate(String position, BitBoard board, Team team, boolean isCapture) {
+        assumeTrue(Metrics.allocatedBytes() >= 0, "this JVM cannot count the bytes a thread allocates");
+        int[] moves = board.newMoveBuffer();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            generate(board, team, isCapture, moves, MEASURED_CALLS / 10);
+        }
+        long before = Metrics.allocatedBytes();
+        long result = generate(board, team, isCapture, moves, MEASURED_CALLS);
+        long allocated = Metrics.allocatedBytes() - before;
+        assertEquals(0, allocated, "bytes allocated over " + MEASURED_CALLS + " calls (" + result + " moves)");
+    }
+
+    private static long generate(BitBoard board, Team team, boolean isCapture, int[] moves, int calls) {
+        long result = 0;
+        for (int i = 0; i < calls; i++) {
+            result += board.generateMoves(team, isCapture, moves);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+package checkers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import checkers.Main.Fen;
+import checkers.Main.Game;
+import checkers.Main.Perft;
+import checkers.Main.Rules;
+
+/**
+ * Checks perft against pinned counts at every depth, so any change to move
+ * generation that reaches different positions is caught.
+ */
+class PerftTest {
+    /*
+     * Positions with counts taken from the original list based rules
+     */
+    private static final String[] CASUAL_POSITIONS = {
+            Fen.STANDARD_START,
+            "B:WK2,K10,29:BK1,13,K16,K17,25,K27",
+            "W:WK4,6,8,16,K29,32:B17,26,K27" };
+    private static final long[][] CASUAL_COUNTS = {
+            { 7, 49, 379, 2872, 23582, 190647, 1607272 },
+            { 14, 97, 1295, 7990, 105030 },
+            { 8, 54, 436, 2552, 21920 } };
+
+    /*
+     * The published counts for the standard opening under standard rules
+     */
+    private static final long[] STANDARD_COUNTS = { 7, 49, 302, 1469, 7361, 36768, 179740, 845931 };
+
+    static List<Arguments> counts() {
+        List<Arguments> counts = new ArrayList<>();
+        for (int i = 0; i < CASUAL_POSITIONS.length; i++) {
+            add(counts, CASUAL_POSITIONS[i], Rules.CASUAL, CASUAL_COUNTS[i]);
+        }
+        add(counts, Fen.STANDARD_START, Rules.STANDARD, STANDARD_COUNTS);
+        return counts;
+    }
+
+    private static void add(List<Arguments> counts, String fen, Rules rules, long[] expected) {
+        for (int depth = 1; depth <= expected.length; depth++) {
+            counts.add(Arguments.of(fen, rules, depth, expected[depth - 1]));
+        }
+    }
+
+    @ParameterizedTest(name = "{0} {1} depth {2}")
+    @MethodSource("counts")
+    void countsMatch(String fen, Rules rules, int depth, long expected) {
+        Game game = Fen.parse(fen);
+        game.rules = rules;
+        Perft.Division division = Perft.divide(game, Fen.sideToMove(fen), depth,
+                Runtime.getRuntime().availableProcessors());
+        assertEquals(expected, division.nodes);
+    }
+}
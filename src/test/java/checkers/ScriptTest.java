@@ -0,0 +1,32 @@
+package checkers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.jupiter.api.Test;
+
+import checkers.Main.Rules;
+import checkers.Main.Script;
+
+/**
+ * Checks scripts played through one reused player, as the directory mode plays
+ * them on each thread.
+ */
+class ScriptTest {
+    private static String play(Script player, String name, String script) throws IOException {
+        return player.play(name, new BufferedReader(new StringReader(script))).describe();
+    }
+
+    @Test
+    void drawnScriptDoesNotEndTheNextOne() throws IOException {
+        Script player = new Script(8, Rules.CASUAL);
+        // A game drawn by skipped turns makes no moves, and must not leave the
+        // player's game over for the script after it
+        assertEquals("drawn by skips: 5 plies, drawn by threefold repetition",
+                play(player, "drawn by skips", "red\ns\ns\ns\ns\ns\n"));
+        assertEquals("one move: 1 plies, BLACK to move", play(player, "one move", "red\nm 1 5 0 4\n"));
+    }
+}